@@ -0,0 +1,43 @@
+package com.zk.jlox;
+
+/**
+ * 生成不同规模的 Lox 源码 作为前端(Scanner Parser Resolver)基准测试的输入
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * 生成包含 declarations 组 类 + 函数 + 循环 的源码
+     */
+    static String source(int declarations) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < declarations; i++) {
+            source.append("class Node").append(i).append(" {\n")
+                .append("  init(value) { this.value = value; this.next = nil; }\n")
+                .append("  sum(n) {\n")
+                .append("    var total = 0;\n")
+                .append("    for (var k = 0; k < n; k = k + 1) { total = total + this.value * k; }\n")
+                .append("    return total;\n")
+                .append("  }\n")
+                .append("}\n")
+                .append("fun helper").append(i).append("(a, b) {\n")
+                .append("  var text = \"node \" + \"").append(i).append("\";\n")
+                .append("  if (a > b and !(a == b)) { return a - b; } else { return b - a; }\n")
+                .append("}\n")
+                .append("var value").append(i).append(" = Node").append(i).append("(")
+                .append(i).append(").sum(3) + helper").append(i).append("(1, 2);\n");
+        }
+        return source.toString();
+    }
+
+    static Program compile(String source) {
+        // 不缓存纯函数的结果 否则测到的是缓存命中 不是调用本身
+        Program program = Program.compile(source, false);
+        if (program == null) {
+            throw new IllegalStateException("Fixture does not compile");
+        }
+        return program;
+    }
+}
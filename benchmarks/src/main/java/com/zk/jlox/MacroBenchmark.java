@@ -0,0 +1,191 @@
+package com.zk.jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 跑 resources/bench 下的 Lox 程序 并和基线比较
+ *
+ * 每个程序只编译一次 预热若干轮之后重复执行 每轮用一个新的 Interpreter
+ * 纯函数的结果缓存默认关闭 测的是解释器本身 名字以 memo 开头的程序打开缓存 单独测缓存
+ * 缓存在函数上 每轮的 Interpreter 重新定义函数 所以每轮都从空缓存开始
+ * 报告 ops/s p50/p99 延迟 每轮分配的字节数
+ * ops/s 比基线低出容忍范围时 以非 0 退出码结束
+ *
+ * 用法: MacroBenchmark [--warmup N] [--iterations N] [--tolerance 0.30]
+ *                      [--dir resources/bench] [--baseline FILE] [--update-baseline] [name...]
+ */
+public class MacroBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final Output DISCARD = new Output(OutputStream.nullOutputStream());
+    // 这样命名的程序打开纯函数的结果缓存
+    private static final String MEMO_PREFIX = "memo";
+
+    private static class Result {
+        final String name;
+        final double opsPerSecond;
+        final double p50Millis;
+        final double p99Millis;
+        final long bytesPerOp;
+
+        Result(String name, long[] nanos, long bytes) {
+            this.name = name;
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long n : sorted) {
+                total += n;
+            }
+            this.opsPerSecond = sorted.length * 1e9 / total;
+            this.p50Millis = percentile(sorted, 0.50) / 1e6;
+            this.p99Millis = percentile(sorted, 0.99) / 1e6;
+            this.bytesPerOp = bytes / sorted.length;
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // 预热 5 轮时 JIT 还没稳定 后面几个程序的结果比单独跑时高出一倍
+        int warmup = 10;
+        int iterations = 20;
+        // 同一台机器上连续几次完整运行 ops/s 相差最多 30% 左右
+        double tolerance = 0.30;
+        Path dir = Paths.get("resources/bench");
+        Path baseline = null;
+        boolean update = false;
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                case "--dir": dir = Paths.get(args[++i]); break;
+                case "--baseline": baseline = Paths.get(args[++i]); break;
+                case "--update-baseline": update = true; break;
+                default: names.add(args[i]);
+            }
+        }
+        if (baseline == null) {
+            baseline = dir.resolve("baseline.txt");
+        }
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(dir)) {
+            scripts = files.filter(p -> p.toString().endsWith(".k")).sorted().collect(Collectors.toList());
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Path script : scripts) {
+            String name = script.getFileName().toString().replace(".k", "");
+            if (!names.isEmpty() && !names.contains(name)) {
+                continue;
+            }
+            results.add(run(name, Files.readString(script, StandardCharsets.UTF_8), warmup, iterations));
+        }
+
+        Map<String, Double> expected = readBaseline(baseline);
+        boolean regressed = false;
+        System.out.println(String.format("%-16s %10s %10s %10s %14s %10s %8s",
+            "benchmark", "ops/s", "p50 ms", "p99 ms", "alloc B/op", "baseline", "change"));
+        for (Result result : results) {
+            Double base = expected.get(result.name);
+            String change = "";
+            String mark = "";
+            if (base != null) {
+                double ratio = result.opsPerSecond / base - 1;
+                change = String.format("%+.1f%%", ratio * 100);
+                if (ratio < -tolerance) {
+                    mark = "  REGRESSION";
+                    regressed = true;
+                }
+            }
+            System.out.println(String.format("%-16s %10.2f %10.2f %10.2f %14d %10s %8s%s",
+                result.name, result.opsPerSecond, result.p50Millis, result.p99Millis, result.bytesPerOp,
+                base == null ? "-" : String.format("%.2f", base), change, mark));
+        }
+
+        if (update) {
+            writeBaseline(baseline, expected, results);
+            System.out.println("Baseline written to " + baseline);
+        } else if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    private static Result run(String name, String source, int warmup, int iterations) {
+        Program program = Program.compile(source, name.startsWith(MEMO_PREFIX));
+        if (program == null) {
+            throw new IllegalStateException(name + " does not compile");
+        }
+        long[] nanos = new long[iterations];
+        long bytes = 0;
+        for (int i = 0; i < warmup; i++) {
+            execute(name, program);
+        }
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; i++) {
+            long allocated = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            execute(name, program);
+            nanos[i] = System.nanoTime() - start;
+            bytes += THREADS.getThreadAllocatedBytes(threadId) - allocated;
+        }
+        return new Result(name, nanos, bytes);
+    }
+
+    private static void execute(String name, Program program) {
+        // 脚本自己的 print 输出丢掉
+        new Interpreter(DISCARD).interpret(program);
+        if (Jlox.hadRuntimeError) {
+            throw new IllegalStateException(name + " failed with a runtime error");
+        }
+    }
+
+    private static Map<String, Double> readBaseline(Path path) throws IOException {
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return baseline;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            baseline.put(parts[0], Double.parseDouble(parts[1]));
+        }
+        return baseline;
+    }
+
+    private static void writeBaseline(Path path, Map<String, Double> previous, List<Result> results) throws IOException {
+        Map<String, Double> merged = new LinkedHashMap<>(previous);
+        for (Result result : results) {
+            merged.put(result.name, result.opsPerSecond);
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add("# benchmark ops/s, written by MacroBenchmark --update-baseline");
+        for (Map.Entry<String, Double> entry : merged.entrySet()) {
+            lines.add(String.format("%s %.2f", entry.getKey(), entry.getValue()));
+        }
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,120 @@
+package com.zk.jlox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 运行时热点 Environment.get/getAt JloxInstance.get JloxFunction.call 编译之后的二元运算节点
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RuntimeBenchmark {
+
+    // 变量定义在离当前作用域多远的地方
+    @Param({"0", "4", "16"})
+    int depth;
+
+    private Interpreter interpreter;
+    private Environment environment;
+    private Token variable;
+    private JloxInstance instance;
+    private Token field;
+    private Token method;
+    private JloxFunction add;
+    private List<Object> arguments;
+    private ExprNode numberAdd;
+    private ExprNode stringAdd;
+    private ExprNode compare;
+
+    @Setup
+    public void setUp() {
+        interpreter = new Interpreter();
+        variable = new Token(TokenType.IDENTIFIER, "x", null, 1);
+
+        Environment outer = new Environment(interpreter.globals);
+        outer.define("x", 1.0);
+        environment = outer;
+        for (int i = 0; i < depth; i++) {
+            environment = new Environment(environment);
+            environment.define("other" + i, 2.0);
+        }
+
+        interpreter.interpret(Fixtures.compile(
+            "class Point { init(x) { this.x = x; } getX() { return this.x; } }\n"
+            + "fun add(a, b) { return a + b; }\n"));
+        JloxClass point = (JloxClass)interpreter.globals.get(new Token(TokenType.IDENTIFIER, "Point", null, 1));
+        instance = (JloxInstance)point.call(interpreter, Collections.singletonList(3.0));
+        field = new Token(TokenType.IDENTIFIER, "x", null, 1);
+        method = new Token(TokenType.IDENTIFIER, "getX", null, 1);
+        add = (JloxFunction)interpreter.globals.get(new Token(TokenType.IDENTIFIER, "add", null, 1));
+        arguments = Arrays.asList(1.0, 2.0);
+
+        numberAdd = binary(1.0, TokenType.PLUS, "+", 2.0);
+        stringAdd = binary("foo", TokenType.PLUS, "+", "bar");
+        compare = binary(1.0, TokenType.LESS, "<", 2.0);
+    }
+
+    private static ExprNode binary(Object left, TokenType type, String lexeme, Object right) {
+        return Compiler.compile(
+            new Expr.Binary(new Expr.Literal(left), new Token(type, lexeme, null, 1), new Expr.Literal(right)));
+    }
+
+    @Benchmark
+    public Object environmentGet() {
+        return environment.get(variable);
+    }
+
+    @Benchmark
+    public Object environmentGetAt() {
+        return environment.getAt(depth, "x");
+    }
+
+    @Benchmark
+    public Object instanceGetField() {
+        return instance.get(field);
+    }
+
+    @Benchmark
+    public Object instanceGetMethod() {
+        // 每次访问方法都会 bind 一次
+        return instance.get(method);
+    }
+
+    @Benchmark
+    public Object functionCall() {
+        return add.call(interpreter, arguments);
+    }
+
+    @Benchmark
+    public Object binaryNumberAdd() {
+        return numberAdd.evaluate(interpreter, environment);
+    }
+
+    @Benchmark
+    public Object binaryStringAdd() {
+        return stringAdd.evaluate(interpreter, environment);
+    }
+
+    @Benchmark
+    public Object binaryCompare() {
+        return compare.evaluate(interpreter, environment);
+    }
+}
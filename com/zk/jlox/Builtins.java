@@ -0,0 +1,328 @@
+package com.zk.jlox;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 全局内置函数
+ *
+ * 所有内置函数共用这一个类 按编号 switch 分发
+ * 不给每个函数生成一个 lambda 类 解释器启动时不用初始化 LambdaMetafactory 也少加载很多类
+ * 只有一个编号 写进快照再读回来还是同一个内置函数
+ */
+final class Builtins implements NativeFunction.Body, Serializable {
+
+    private static final int CLOCK = 0;
+    private static final int SPAWN = 1;
+    private static final int CHANNEL = 2;
+    private static final int LIST = 3;
+    private static final int PARALLEL_MAP = 4;
+    private static final int PARALLEL_FILTER = 5;
+    private static final int PARALLEL_REDUCE = 6;
+    private static final int NANO_CLOCK = 7;
+    private static final int SQRT = 8;
+    private static final int FLOOR = 9;
+    private static final int CEIL = 10;
+    private static final int ROUND = 11;
+    private static final int ABS = 12;
+    private static final int POW = 13;
+    private static final int MIN = 14;
+    private static final int MAX = 15;
+    private static final int EXP = 16;
+    private static final int LOG = 17;
+    private static final int SIN = 18;
+    private static final int COS = 19;
+    private static final int LEN = 20;
+    private static final int SUBSTR = 21;
+    private static final int INDEX_OF = 22;
+    private static final int SPLIT = 23;
+    private static final int UPPER = 24;
+    private static final int LOWER = 25;
+    private static final int TRIM = 26;
+    private static final int TO_NUMBER = 27;
+    private static final int TO_STRING = 28;
+    private static final int MAP = 29;
+    private static final int MEMO_STATS = 30;
+
+    // 结果只由参数决定 也不修改任何状态的内置函数 纯函数可以调用
+    // len toString 的结果会随着列表 实例的修改而变化 不算在内
+    private static final Set<String> PURE = Set.of(
+        "sqrt", "floor", "ceil", "round", "abs", "pow", "min", "max", "exp", "log", "sin", "cos",
+        "substr", "indexOf", "upper", "lower", "trim", "toNumber");
+
+    private final int id;
+
+    private Builtins(int id) {
+        this.id = id;
+    }
+
+    static void define(Environment globals) {
+        // clock() 获取当前秒级时间戳
+        define(globals, "clock", 0, CLOCK);
+        // spawn(fn) 在新线程上执行无参函数 返回可以 join 的任务句柄
+        define(globals, "spawn", 1, SPAWN);
+        // channel(capacity) 创建有界通道 用于任务之间传递数据
+        define(globals, "channel", 1, CHANNEL);
+        // list() 创建空列表
+        define(globals, "list", 0, LIST);
+        // map() 创建空哈希表
+        define(globals, "map", 0, MAP);
+        // 数据并行 在公共 ForkJoinPool 上调用 Lox 函数 结果保持原来的顺序 见 Parallel
+        define(globals, "parallelMap", 2, PARALLEL_MAP);
+        define(globals, "parallelFilter", 2, PARALLEL_FILTER);
+        define(globals, "parallelReduce", 3, PARALLEL_REDUCE);
+
+        // nanoClock() 纳秒级单调时钟 用来计时 不是时间戳
+        define(globals, "nanoClock", 0, NANO_CLOCK);
+
+        // 数学函数
+        define(globals, "sqrt", 1, SQRT);
+        define(globals, "floor", 1, FLOOR);
+        define(globals, "ceil", 1, CEIL);
+        define(globals, "round", 1, ROUND);
+        define(globals, "abs", 1, ABS);
+        define(globals, "pow", 2, POW);
+        define(globals, "min", 2, MIN);
+        define(globals, "max", 2, MAX);
+        define(globals, "exp", 1, EXP);
+        define(globals, "log", 1, LOG);
+        define(globals, "sin", 1, SIN);
+        define(globals, "cos", 1, COS);
+
+        // 字符串函数 下标从 0 开始 区间左闭右开
+        define(globals, "len", 1, LEN);
+        define(globals, "substr", 3, SUBSTR);
+        define(globals, "indexOf", 2, INDEX_OF);
+        define(globals, "split", 2, SPLIT);
+        define(globals, "upper", 1, UPPER);
+        define(globals, "lower", 1, LOWER);
+        define(globals, "trim", 1, TRIM);
+
+        // 类型转换 toNumber 解析失败时返回 nil
+        define(globals, "toNumber", 1, TO_NUMBER);
+        define(globals, "toString", 1, TO_STRING);
+
+        // memoStats(fn) 自动缓存的纯函数的命中统计 没有缓存的函数返回 nil
+        define(globals, "memoStats", 1, MEMO_STATS);
+    }
+
+    static boolean isPure(String name) {
+        return PURE.contains(name);
+    }
+
+    private static void define(Environment globals, String name, int arity, int id) {
+        globals.define(name, new NativeFunction(name, arity, new Builtins(id)));
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object a, Object b, Object c) {
+        switch (id) {
+            case CLOCK:
+                return (double)System.currentTimeMillis() / 1000.0;
+            case SPAWN: {
+                Object function = a;
+                if (!(function instanceof JloxCallable) || ((JloxCallable)function).arity() != 0) {
+                    throw new RuntimeError(null, "Can only spawn functions without parameters.");
+                }
+                return new JloxTask(interpreter, (JloxCallable)function);
+            }
+            case CHANNEL: {
+                Object capacity = a;
+                if (!(capacity instanceof Double) || (double)capacity < 0 || (double)capacity % 1 != 0) {
+                    throw new RuntimeError(null, "Channel capacity must be a non-negative integer.");
+                }
+                // 有界队列一开始就分配整个数组
+                ExecutionBudget.allocate(interpreter, ExecutionBudget.SLOT_BYTES * (long)(double)capacity, null);
+                return new JloxChannel((int)(double)capacity);
+            }
+            case LIST:
+                ExecutionBudget.allocate(interpreter, ExecutionBudget.LIST_BYTES, null);
+                return new JloxList();
+            case MAP:
+                ExecutionBudget.allocate(interpreter, ExecutionBudget.MAP_BYTES, null);
+                return new JloxMap();
+            case PARALLEL_MAP:
+                return Parallel.map(interpreter, checkList(a), checkCallable(b, 1));
+            case PARALLEL_FILTER:
+                return Parallel.filter(interpreter, checkList(a), checkCallable(b, 1));
+            case PARALLEL_REDUCE:
+                return Parallel.reduce(interpreter, checkList(a), checkCallable(b, 2),
+                    c);
+            case NANO_CLOCK:
+                return (double)System.nanoTime();
+            case SQRT:
+                return Math.sqrt(checkNumber(a));
+            case FLOOR:
+                return Math.floor(checkNumber(a));
+            case CEIL:
+                return Math.ceil(checkNumber(a));
+            case ROUND:
+                return (double)Math.round(checkNumber(a));
+            case ABS:
+                return Math.abs(checkNumber(a));
+            case POW:
+                return Math.pow(checkNumber(a), checkNumber(b));
+            case MIN:
+                return Math.min(checkNumber(a), checkNumber(b));
+            case MAX:
+                return Math.max(checkNumber(a), checkNumber(b));
+            case EXP:
+                return Math.exp(checkNumber(a));
+            case LOG:
+                return Math.log(checkNumber(a));
+            case SIN:
+                return Math.sin(checkNumber(a));
+            case COS:
+                return Math.cos(checkNumber(a));
+            case LEN: {
+                Object value = a;
+                if (value instanceof JloxList) {
+                    return (double)((JloxList)value).size();
+                }
+                if (value instanceof JloxMap) {
+                    return (double)((JloxMap)value).size();
+                }
+                if (JloxRope.isString(value)) {
+                    // JloxRope 的长度不需要拼成 String
+                    return (double)((CharSequence)value).length();
+                }
+                throw new RuntimeError(null, "Argument must be a string, list or map.");
+            }
+            case SUBSTR: {
+                String text = checkString(a);
+                int start = checkIndex(b);
+                int end = checkIndex(c);
+                if (start > end || end > text.length()) {
+                    throw new RuntimeError(null, "Substring range out of bounds.");
+                }
+                ExecutionBudget.allocate(interpreter, ExecutionBudget.stringBytes(end - start), null);
+                return text.substring(start, end);
+            }
+            case INDEX_OF:
+                return (double)checkString(a).indexOf(checkString(b));
+            case SPLIT:
+                return split(checkString(a), checkString(b), interpreter);
+            case UPPER:
+                return copied(interpreter, checkString(a)).toUpperCase();
+            case LOWER:
+                return copied(interpreter, checkString(a)).toLowerCase();
+            case TRIM:
+                return copied(interpreter, checkString(a)).trim();
+            case TO_NUMBER:
+                return toNumber(checkString(a));
+            case TO_STRING: {
+                // 列表 哈希表转换的结果长度事先不知道 转换之后再记账
+                String text = Interpreter.stringfy(a);
+                ExecutionBudget.allocate(interpreter, ExecutionBudget.stringBytes(text.length()), null);
+                return text;
+            }
+            case MEMO_STATS:
+                if (!(a instanceof JloxFunction)) {
+                    return null;
+                }
+                ExecutionBudget.allocate(interpreter, ExecutionBudget.MAP_BYTES, null);
+                return ((JloxFunction)a).memoStats();
+        }
+        throw new IllegalStateException("Unknown builtin " + id);
+    }
+
+    private static JloxList split(String text, String separator, Interpreter interpreter) {
+        // 按字面量分割 不是正则 分隔符为空时拆成单个字符
+        // 每一段分配之前记账 包括结果列表里的一个槽位
+        List<Object> parts = new ArrayList<>();
+        ExecutionBudget.allocate(interpreter, ExecutionBudget.LIST_BYTES, null);
+        if (separator.isEmpty()) {
+            for (int i = 0; i < text.length(); i++) {
+                ExecutionBudget.allocate(interpreter, ExecutionBudget.stringBytes(1) + ExecutionBudget.SLOT_BYTES, null);
+                parts.add(String.valueOf(text.charAt(i)));
+            }
+            return new JloxList(parts);
+        }
+        int start = 0;
+        int index;
+        while ((index = text.indexOf(separator, start)) != -1) {
+            ExecutionBudget.allocate(interpreter,
+                ExecutionBudget.stringBytes(index - start) + ExecutionBudget.SLOT_BYTES, null);
+            parts.add(text.substring(start, index));
+            start = index + separator.length();
+        }
+        ExecutionBudget.allocate(interpreter,
+            ExecutionBudget.stringBytes(text.length() - start) + ExecutionBudget.SLOT_BYTES, null);
+        parts.add(text.substring(start));
+        return new JloxList(parts);
+    }
+
+    private static String copied(Interpreter interpreter, String text) {
+        // upper lower trim 的结果最多和原来一样长 按原来的长度记账
+        ExecutionBudget.allocate(interpreter, ExecutionBudget.stringBytes(text.length()), null);
+        return text;
+    }
+
+    private static Object toNumber(String text) {
+        // 只接受和 Lox 数字字面量一样的写法
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        int i = trimmed.charAt(0) == '-' ? 1 : 0;
+        int digits = 0;
+        boolean dot = false;
+        for (; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && !dot && digits > 0) {
+                dot = true;
+            } else {
+                return null;
+            }
+        }
+        if (digits == 0 || trimmed.endsWith(".")) {
+            return null;
+        }
+        return Double.parseDouble(trimmed);
+    }
+
+    private static double checkNumber(Object value) {
+        if (value instanceof Double) {
+            return (double)value;
+        }
+        throw new RuntimeError(null, "Argument must be a number.");
+    }
+
+    private static int checkIndex(Object value) {
+        double number = checkNumber(value);
+        if (number < 0 || number % 1 != 0) {
+            throw new RuntimeError(null, "Index must be a non-negative integer.");
+        }
+        return (int)number;
+    }
+
+    private static String checkString(Object value) {
+        if (JloxRope.isString(value)) {
+            return value.toString();
+        }
+        throw new RuntimeError(null, "Argument must be a string.");
+    }
+
+    private static JloxList checkList(Object value) {
+        if (value instanceof JloxList) {
+            return (JloxList)value;
+        }
+        throw new RuntimeError(null, "Argument must be a list.");
+    }
+
+    private static JloxCallable checkCallable(Object value, int arity) {
+        if (!(value instanceof JloxCallable)) {
+            throw new RuntimeError(null, "Argument must be a function.");
+        }
+        // 并行任务直接按固定个数调用 参数个数要先检查
+        if (((JloxCallable)value).arity() != arity) {
+            throw new RuntimeError(null, "Argument must be a function with " + arity + " parameter"
+                + (arity == 1 ? "" : "s") + ".");
+        }
+        return (JloxCallable)value;
+    }
+}
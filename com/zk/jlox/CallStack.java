@@ -0,0 +1,37 @@
+package com.zk.jlox;
+
+/**
+ * 单个线程上的 Lox 调用栈影子 只记录正在执行的函数声明
+ * 只有所属线程会 push/pop 采样线程只读 不加锁
+ * 采样读到的可能是刚好在变化中的栈 对统计来说可以接受
+ */
+class CallStack {
+
+    private volatile Stmt.Function[] frames = new Stmt.Function[64];
+    private volatile int depth = 0;
+
+    void push(Stmt.Function function) {
+        Stmt.Function[] current = frames;
+        if (depth == current.length) {
+            // 扩容时换一个新数组 采样线程要么读到旧数组 要么读到新数组
+            Stmt.Function[] grown = new Stmt.Function[current.length * 2];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            frames = current = grown;
+        }
+        current[depth] = function;
+        depth = depth + 1;
+    }
+
+    void pop() {
+        depth = depth - 1;
+    }
+
+    Stmt.Function[] snapshot() {
+        // 先读深度 再读数组 数组只会变大 所以不会越界
+        int size = depth;
+        Stmt.Function[] current = frames;
+        Stmt.Function[] copy = new Stmt.Function[Math.min(size, current.length)];
+        System.arraycopy(current, 0, copy, 0, copy.length);
+        return copy;
+    }
+}
@@ -0,0 +1,284 @@
+package com.zk.jlox;
+
+import java.util.List;
+
+/**
+ * 把 Resolver 和 TypeInference 处理过的语法树 转换成可以直接执行的节点树 见 ExprNode StmtNode
+ *
+ * 每个 Expr Stmt 只在这里经过一次 Visitor 之后执行时都是节点上的直接调用
+ * 运算符换成对应的节点类 变量按 Resolver 算出的距离分成当前作用域 外层作用域 全局三种节点
+ * 类型推导证明了类型的加法 直接换成不检查类型的节点
+ *
+ * 同时记下每个函数体的节点树有多深 执行时一层节点是一层 Java 栈帧 见 JloxFunction 和 FrameMachine
+ */
+final class Compiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+
+    // 一次调用本身占用的 Java 栈帧 调用节点 callX execute 函数体的 Sequence
+    private static final int CALL_FRAMES = 4;
+
+    // 当前节点的深度 和当前函数体里最深的节点
+    private int depth;
+    private int deepest;
+
+    private Compiler() {
+    }
+
+    /**
+     * 编译一串语句 在调用方给的作用域里依次执行
+     */
+    static StmtNode.Sequence compile(List<Stmt> statements) {
+        return new StmtNode.Sequence(new Compiler().statements(statements));
+    }
+
+    static StmtNode compile(Stmt statement) {
+        return new Compiler().node(statement);
+    }
+
+    static ExprNode compile(Expr expression) {
+        return new Compiler().node(expression);
+    }
+
+    private StmtNode node(Stmt statement) {
+        deepest = Math.max(deepest, ++depth);
+        try {
+            return statement.accept(this);
+        } finally {
+            depth--;
+        }
+    }
+
+    private ExprNode node(Expr expression) {
+        deepest = Math.max(deepest, ++depth);
+        try {
+            return expression.accept(this);
+        } finally {
+            depth--;
+        }
+    }
+
+    private StmtNode[] statements(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = node(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private ExprNode[] expressions(List<Expr> expressions) {
+        ExprNode[] nodes = new ExprNode[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = node(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    private ExprNode variable(Token name, int depth) {
+        // depth 由 Resolver 写在语法树节点上 -1 表示全局变量
+        if (depth == -1) {
+            return new ExprNode.Global(name);
+        }
+        if (depth == 0) {
+            return new ExprNode.Local(name.lexeme);
+        }
+        return new ExprNode.Enclosing(depth, name.lexeme);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = node(expr.left);
+        ExprNode right = node(expr.right);
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case MINUS:
+                return new ExprNode.Subtract(left, operator, right, expr.numeric);
+            case STAR:
+                return new ExprNode.Multiply(left, operator, right, expr.numeric);
+            case SLASH:
+                return new ExprNode.Divide(left, operator, right, expr.numeric);
+            case PLUS:
+                if (expr.numeric) {
+                    return new ExprNode.AddNumbers(left, operator, right);
+                }
+                return new ExprNode.Add(left, operator, right, expr.strings);
+            case GREATER:
+                return new ExprNode.Greater(left, operator, right, expr.numeric);
+            case GREATER_EQUAL:
+                return new ExprNode.GreaterEqual(left, operator, right, expr.numeric);
+            case LESS:
+                return new ExprNode.Less(left, operator, right, expr.numeric);
+            case LESS_EQUAL:
+                return new ExprNode.LessEqual(left, operator, right, expr.numeric);
+            case EQUAL_EQUAL:
+                return new ExprNode.Equal(left, operator, right);
+            case BANG_EQUAL:
+                return new ExprNode.NotEqual(left, operator, right);
+            default:
+                throw new IllegalStateException("Unexpected binary operator " + operator.type);
+        }
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode callee = node(expr.callee);
+        ExprNode[] arguments = expressions(expr.arguments);
+        switch (arguments.length) {
+            case 0:
+                return new ExprNode.Call0(callee, expr.paren);
+            case 1:
+                return new ExprNode.Call1(callee, expr.paren, arguments[0]);
+            case 2:
+                return new ExprNode.Call2(callee, expr.paren, arguments[0], arguments[1]);
+            case 3:
+                return new ExprNode.Call3(callee, expr.paren, arguments[0], arguments[1], arguments[2]);
+            default:
+                return new ExprNode.CallN(callee, expr.paren, arguments);
+        }
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        return new ExprNode.Get(node(expr.object), expr.name);
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        return new ExprNode.Set(node(expr.object), expr.name, node(expr.value));
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        return new ExprNode.Super(expr.depth, expr.method);
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return variable(expr.keyword, expr.depth);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        // 括号只影响语法 执行时不需要单独的节点
+        return node(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        return new ExprNode.Constant(expr.value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = node(expr.left);
+        ExprNode right = node(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return new ExprNode.Or(left, right);
+        }
+        return new ExprNode.And(left, right);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = node(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                return new ExprNode.Negate(expr.operator, right, expr.numeric);
+            case BANG:
+                return new ExprNode.Not(right);
+            default:
+                throw new IllegalStateException("Unexpected unary operator " + expr.operator.type);
+        }
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        return variable(expr.name, expr.depth);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = node(expr.value);
+        if (expr.depth == -1) {
+            return new ExprNode.AssignGlobal(expr.name, value);
+        }
+        if (expr.depth == 0) {
+            return new ExprNode.AssignLocal(expr.name.lexeme, value);
+        }
+        return new ExprNode.AssignEnclosing(expr.depth, expr.name.lexeme, value);
+    }
+
+    @Override
+    public ExprNode visitIndexExpr(Expr.Index expr) {
+        return new ExprNode.Index(node(expr.object), expr.bracket, node(expr.index));
+    }
+
+    @Override
+    public ExprNode visitIndexSetExpr(Expr.IndexSet expr) {
+        return new ExprNode.IndexSet(node(expr.object), expr.bracket, node(expr.index),
+            node(expr.value));
+    }
+
+    @Override
+    public ExprNode visitListLiteralExpr(Expr.ListLiteral expr) {
+        return new ExprNode.ListLiteral(expr.bracket, expressions(expr.elements));
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        return new StmtNode.Block(statements(stmt.statements));
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        ExprNode superClass = stmt.superClass == null ? null : node(stmt.superClass);
+        StmtNode.Function[] methods = new StmtNode.Function[stmt.methods.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = visitFunctionStmt(stmt.methods.get(i));
+        }
+        return new StmtNode.Class(stmt.name, superClass, methods);
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new StmtNode.Expression(node(stmt.expression));
+    }
+
+    @Override
+    public StmtNode.Function visitFunctionStmt(Stmt.Function stmt) {
+        // 函数体单独计算深度 外层的深度在编译完之后恢复
+        int outerDepth = depth;
+        int outerDeepest = deepest;
+        depth = 0;
+        deepest = 0;
+        StmtNode[] body = statements(stmt.body);
+        int frames = CALL_FRAMES + deepest;
+        depth = outerDepth;
+        deepest = outerDeepest;
+        return new StmtNode.Function(stmt, new StmtNode.Sequence(body, frames));
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        StmtNode elseBranch = stmt.elseBranch == null ? null : node(stmt.elseBranch);
+        return new StmtNode.If(node(stmt.condition), node(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        return new StmtNode.Print(node(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        return new StmtNode.Return(stmt.value == null ? null : node(stmt.value));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        return new StmtNode.Var(stmt.name.lexeme, stmt.initializer == null ? null : node(stmt.initializer));
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        return new StmtNode.While(stmt.keyword, node(stmt.condition), node(stmt.body));
+    }
+}
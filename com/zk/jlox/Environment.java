@@ -1,18 +1,43 @@
 package com.zk.jlox;
 
-import java.util.HashMap;
+import java.io.Serializable;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 作用域 可以写进堆快照 见 Snapshot
+ */
+class Environment implements Serializable {
+    // ConcurrentHashMap 不能存 null 统一用一个占位对象表示 nil 实例的字段也用它 见 JloxInstance
+    private static final Object NIL = new Nil();
+
+    private static final class Nil implements Serializable {
+        // 从快照读回来之后还是同一个占位对象
+        private Object readResolve() {
+            return NIL;
+        }
+    }
 
-class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
 
     Environment() {
+        // 全局作用域 spawn 出来的任务会同时读写 需要线程安全
         enclosing = null;
+        values = new ConcurrentHashMap<>();
+        if (Metrics.ENABLED) {
+            Metrics.ENVIRONMENTS.increment();
+        }
     }
 
     Environment(Environment environment) {
+        // 闭包捕获的作用域也会被 spawn 和并行函数的线程同时读写 和全局作用域一样用 ConcurrentHashMap
         this.enclosing = environment;
+        this.values = new ConcurrentHashMap<>();
+        if (Metrics.ENABLED) {
+            Metrics.ENVIRONMENTS.increment();
+        }
     }
 
     void print() {
@@ -22,15 +47,16 @@ class Environment {
 
     void define(String name, Object value) {
         // 声明变量
-        values.put(name, value);
+        values.put(name, mask(value));
         print();
     }
 
     Object get(Token name) {
         // 读取变量
         print();
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        Object value = values.get(name.lexeme);
+        if (value != null) {
+            return unmask(value);
         }
         if (enclosing != null) {
             return enclosing.get(name);
@@ -39,9 +65,8 @@ class Environment {
     }
 
     public void assign(Token name, Object value) {
-        // 修改变量
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        // 修改变量 只替换已经存在的变量
+        if (values.replace(name.lexeme, mask(value)) != null) {
             print();
             return;
         }
@@ -53,8 +78,26 @@ class Environment {
         throw new RuntimeError(name, "Assign variable fail. Undefined variable '" + name.lexeme + "'.");
     }
 
+    /**
+     * 当前作用域里所有的变量 按名字排序 nil 的值是 null
+     */
+    Map<String, Object> variables() {
+        Map<String, Object> variables = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            variables.put(entry.getKey(), unmask(entry.getValue()));
+        }
+        return variables;
+    }
+
     public Object getAt(Integer distance, String name) {
-        return ancestor(distance).values.get(name);
+        return ancestor(distance).lookup(name);
+    }
+
+    /**
+     * 读取当前作用域里的变量 Resolver 已经确定变量就在这里
+     */
+    Object lookup(String name) {
+        return unmask(values.get(name));
     }
 
     Environment ancestor(int distance) {
@@ -66,6 +109,14 @@ class Environment {
     }
 
     public void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        ancestor(distance).values.put(name.lexeme, mask(value));
+    }
+
+    static Object mask(Object value) {
+        return value == null ? NIL : value;
+    }
+
+    static Object unmask(Object value) {
+        return value == NIL ? null : value;
     }
 }
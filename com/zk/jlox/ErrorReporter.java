@@ -0,0 +1,20 @@
+package com.zk.jlox;
+
+/**
+ * Scanner Parser Resolver 报告的前端错误 默认由 Jlox 打印到 stdout
+ * 语言服务器这类调用方通过 Jlox.reporter 在当前线程上换成自己的实现 收集成诊断信息
+ */
+interface ErrorReporter {
+
+    /**
+     * @param line 出错的行号 从 1 开始
+     * @param where 出错的位置 例如 " at 'foo'" 或者 " at end" 没有时是空字符串
+     */
+    void report(int line, String where, String message);
+
+    /**
+     * 不影响执行的警告 例如类型推导发现的一定会出错的运算 默认忽略
+     */
+    default void warning(int line, String where, String message) {
+    }
+}
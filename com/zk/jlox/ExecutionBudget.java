@@ -0,0 +1,159 @@
+package com.zk.jlox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次执行的预算 限制步数(循环次数 + 函数调用次数) 截止时间 分配的内存 以及 Thread.interrupt 取消
+ *
+ * 解释器在循环回边和函数调用处调用 tick 平时只做一次减法
+ * 每 CHECK_INTERVAL 步才真正检查一次 步数上限仍然是精确的 超时和取消最多晚这么多步才发现
+ * 超出预算时抛出 RuntimeError 和其他运行时错误一样处理
+ *
+ * 内存按解释器里的分配点粗略估算(作用域 实例 新字段 字符串拼接 参数列表)
+ * 以及列表 哈希表扩容 和内置函数构造的字符串 列表 只增不减
+ * 限制的是这次执行累计分配了多少 不是当前存活多少 用来防止脚本无限制地构造对象和字符串
+ *
+ * 通道的 send receive 和任务的 join 阻塞时不会 tick 它们用 remainingNanos 限制最多等多久
+ *
+ * fork 出来的解释器各自有一份 fork 出来的预算 共用上限 截止时间 和 AtomicLong 的计数
+ * 每个线程在自己的那一份上 tick 一批步数走完才加到共用的步数上 所以热路径上没有原子操作
+ * 线程结束时没走完一批的步数不会加上去 多线程时步数上限最多多放过每个线程一批
+ * 内存每次分配都直接加到共用的计数上 是精确的
+ */
+final class ExecutionBudget {
+
+    private static final int CHECK_INTERVAL = 1024;
+
+    // 各个分配点的估算大小(字节) 按 64 位 JVM 压缩指针估算 包括 HashMap 和它的第一张表
+    static final long ENVIRONMENT_BYTES = 160;
+    static final long INSTANCE_BYTES = 160;
+    static final long FIELD_BYTES = 32;
+    // 超过 3 个参数时的参数数组
+    static final long ARGUMENTS_BYTES = 40;
+    static final long ARGUMENT_BYTES = 8;
+    static final long STRING_BYTES = 40;
+    static final long LIST_BYTES = 32;
+    // 包括键和值两张 8 个槽位的初始表
+    static final long MAP_BYTES = 176;
+    // 列表 哈希表 通道数组里的一个槽位 double 和引用都按 8 字节算
+    static final long SLOT_BYTES = 8;
+    // 装箱的 Double
+    static final long NUMBER_BYTES = 16;
+
+    private final long maxSteps;
+    // System.nanoTime() 的截止时刻 没有设置超时时不检查
+    private final boolean hasDeadline;
+    private final long deadline;
+    private final long maxBytes;
+    // 所有线程共用 每次分配都要和上限比较 所以用 AtomicLong 而不是 LongAdder
+    private final AtomicLong allocated;
+
+    // 所有线程已经确认过的步数
+    private final AtomicLong used;
+    // 这个线程正在走的一批步数 只在自己的线程上读写
+    private long granted;
+    private long countdown;
+
+    /**
+     * @param maxSteps 最多允许的步数 0 表示不限制
+     * @param timeoutMillis 超时时间 0 表示不限制
+     * @param maxBytes 最多允许分配的字节数 0 表示不限制
+     */
+    ExecutionBudget(long maxSteps, long timeoutMillis, long maxBytes) {
+        this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+        this.hasDeadline = timeoutMillis > 0;
+        this.deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.allocated = new AtomicLong();
+        this.used = new AtomicLong();
+    }
+
+    private ExecutionBudget(ExecutionBudget shared) {
+        this.maxSteps = shared.maxSteps;
+        this.hasDeadline = shared.hasDeadline;
+        this.deadline = shared.deadline;
+        this.maxBytes = shared.maxBytes;
+        this.allocated = shared.allocated;
+        this.used = shared.used;
+    }
+
+    /**
+     * 给 fork 出来的解释器用 计数和上限都是共用的 从新的一批步数开始
+     */
+    ExecutionBudget fork() {
+        return new ExecutionBudget(this);
+    }
+
+    /**
+     * 容器和内置函数的分配点 在真正分配之前调用 超出预算时抛出错误 不会真的去分配
+     * 没有设置预算时什么都不做 token 为 null 时由调用处的括号补上位置
+     */
+    static void allocate(Interpreter interpreter, long bytes, Token token) {
+        ExecutionBudget budget = interpreter == null ? null : interpreter.budget;
+        if (budget != null) {
+            budget.allocate(bytes, token);
+        }
+    }
+
+    /**
+     * 阻塞等待最多还能等多少纳秒 没有截止时间时返回 Long.MAX_VALUE 已经超时时抛出错误
+     */
+    static long remainingNanos(Interpreter interpreter) {
+        ExecutionBudget budget = interpreter == null ? null : interpreter.budget;
+        if (budget == null || !budget.hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        long remaining = budget.deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw timedOut(null);
+        }
+        return remaining;
+    }
+
+    static RuntimeError timedOut(Token token) {
+        return new RuntimeError(token, "Execution timed out.");
+    }
+
+    static long stringBytes(long chars) {
+        // 按 2 字节一个字符估算
+        return STRING_BYTES + 2 * chars;
+    }
+
+    void allocate(long bytes, Token token) {
+        if (allocated.addAndGet(bytes) > maxBytes) {
+            throw new RuntimeError(token, "Memory quota exceeded: more than " + maxBytes + " bytes allocated.");
+        }
+    }
+
+    void charge(long bytes) {
+        // 没有位置可以报告的分配点 只记账 下一次 allocate 或者定期检查时再报错
+        allocated.addAndGet(bytes);
+    }
+
+    void tick(Token token) {
+        if (--countdown < 0) {
+            refill(token);
+        }
+    }
+
+    private void refill(Token token) {
+        // 上一批全部用完了 加到共用的步数上 检查一次再发下一批
+        long total = used.addAndGet(granted);
+        if (total >= maxSteps) {
+            throw new RuntimeError(token, "Execution budget exceeded: more than " + maxSteps + " steps.");
+        }
+        if (allocated.get() > maxBytes) {
+            throw new RuntimeError(token, "Memory quota exceeded: more than " + maxBytes + " bytes allocated.");
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            throw timedOut(token);
+        }
+        if (Thread.interrupted()) {
+            // 取消已经变成了这个错误 清掉中断标记 线程之后还可以用来执行别的脚本
+            throw new RuntimeError(token, "Execution cancelled.");
+        }
+        granted = Math.min(CHECK_INTERVAL, maxSteps - total);
+        // 本次 tick 自己也算一步
+        countdown = granted - 1;
+    }
+}
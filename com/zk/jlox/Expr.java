@@ -1,8 +1,9 @@
 package com.zk.jlox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
+abstract class Expr implements Serializable {
   interface Visitor<R> {
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
@@ -16,6 +17,9 @@ abstract class Expr {
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
     R visitAssignExpr(Assign expr);
+    R visitIndexExpr(Index expr);
+    R visitIndexSetExpr(IndexSet expr);
+    R visitListLiteralExpr(ListLiteral expr);
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -32,6 +36,8 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    boolean numeric = false;
+    boolean strings = false;
   }
   static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -92,6 +98,7 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int depth = -1;
   }
   static class This extends Expr {
     This(Token keyword) {
@@ -104,6 +111,7 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = -1;
   }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -158,6 +166,7 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+    boolean numeric = false;
   }
   static class Variable extends Expr {
     Variable(Token name) {
@@ -170,6 +179,7 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
   }
   static class Assign extends Expr {
     Assign(Token name, Expr value) {
@@ -184,6 +194,55 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+  }
+  static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+  }
+  static class IndexSet extends Expr {
+    IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexSetExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+  }
+  static class ListLiteral extends Expr {
+    ListLiteral(Token bracket, List<Expr> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitListLiteralExpr(this);
+    }
+
+    final Token bracket;
+    final List<Expr> elements;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
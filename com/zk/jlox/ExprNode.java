@@ -0,0 +1,737 @@
+package com.zk.jlox;
+
+import java.io.Serializable;
+
+/**
+ * 编译之后的表达式 由 Compiler 从 Expr 生成 见 Compiler
+ *
+ * 子节点直接放在字段上 运算符 变量的作用域距离 类型推导的结果都在编译时确定
+ * 每种情况是一个单独的类 执行时不再 switch 也不再经过 Expr.Visitor
+ * 节点构造完成之后不再修改 可以被多个线程同时执行 也可以随函数一起写进堆快照
+ */
+abstract class ExprNode implements Serializable {
+
+    abstract Object evaluate(Interpreter interpreter, Environment environment);
+
+    static final class Constant extends ExprNode {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return value;
+        }
+    }
+
+    // 当前作用域里的变量
+    static final class Local extends ExprNode {
+        private final String name;
+
+        Local(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return environment.lookup(name);
+        }
+    }
+
+    // 外层作用域里的变量 距离由 Resolver 算好
+    static final class Enclosing extends ExprNode {
+        private final int depth;
+        private final String name;
+
+        Enclosing(int depth, String name) {
+            this.depth = depth;
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return environment.ancestor(depth).lookup(name);
+        }
+    }
+
+    static final class Global extends ExprNode {
+        private final Token name;
+
+        Global(Token name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return interpreter.globals.get(name);
+        }
+    }
+
+    static final class AssignLocal extends ExprNode {
+        private final String name;
+        private final ExprNode value;
+
+        AssignLocal(String name, ExprNode value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object value = this.value.evaluate(interpreter, environment);
+            environment.define(name, value);
+            return value;
+        }
+    }
+
+    static final class AssignEnclosing extends ExprNode {
+        private final int depth;
+        private final String name;
+        private final ExprNode value;
+
+        AssignEnclosing(int depth, String name, ExprNode value) {
+            this.depth = depth;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object value = this.value.evaluate(interpreter, environment);
+            environment.ancestor(depth).define(name, value);
+            return value;
+        }
+    }
+
+    static final class AssignGlobal extends ExprNode {
+        private final Token name;
+        private final ExprNode value;
+
+        AssignGlobal(Token name, ExprNode value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object value = this.value.evaluate(interpreter, environment);
+            interpreter.globals.assign(name, value);
+            return value;
+        }
+    }
+
+    static final class Super extends ExprNode {
+        private final int depth;
+        private final Token method;
+
+        Super(int depth, Token method) {
+            this.depth = depth;
+            this.method = method;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return bind(environment, depth, method);
+        }
+
+        static JloxFunction bind(Environment environment, int depth, Token method) {
+            Environment scope = environment.ancestor(depth);
+            JloxClass superclass = (JloxClass)scope.lookup("super");
+            // this 在 super 里面一层的作用域上
+            JloxInstance object = (JloxInstance)environment.ancestor(depth - 1).lookup("this");
+            JloxFunction function = superclass.findMethod(method.lexeme);
+            if (function == null) {
+                // 父类找不到这个方法
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            }
+            return function.bind(object);
+        }
+    }
+
+    static final class Get extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+
+        Get(ExprNode object, Token name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return get(this.object.evaluate(interpreter, environment), name);
+        }
+
+        static Object get(Object object, Token name) {
+            if (object instanceof JloxInstance) {
+                return ((JloxInstance) object).get(name);
+            }
+            if (object instanceof JloxNativeObject) {
+                return ((JloxNativeObject) object).get(name);
+            }
+            throw new RuntimeError(name, "Only instance have properties.");
+        }
+    }
+
+    static final class Set extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+
+        Set(ExprNode object, Token name, ExprNode value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            // 先把要设置值的对象拿出来
+            Object object = this.object.evaluate(interpreter, environment);
+            checkInstance(object);
+            // 再把值计算出来
+            set(interpreter, object, name, this.value.evaluate(interpreter, environment));
+            return null;
+        }
+
+        static void checkInstance(Object object) {
+            if (!(object instanceof JloxInstance)) {
+                throw new RuntimeError(null, null);
+            }
+        }
+
+        static void set(Interpreter interpreter, Object object, Token name, Object value) {
+            if (((JloxInstance) object).set(name, value) && interpreter.budget != null) {
+                interpreter.budget.allocate(ExecutionBudget.FIELD_BYTES, name);
+            }
+        }
+    }
+
+    static final class Index extends ExprNode {
+        private final ExprNode object;
+        private final Token bracket;
+        private final ExprNode index;
+
+        Index(ExprNode object, Token bracket, ExprNode index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object object = this.object.evaluate(interpreter, environment);
+            return get(object, this.index.evaluate(interpreter, environment), bracket);
+        }
+
+        static Object get(Object object, Object index, Token bracket) {
+            if (object instanceof JloxList) {
+                return ((JloxList) object).get(index, bracket);
+            }
+            if (object instanceof JloxMap) {
+                return ((JloxMap) object).get(index, bracket);
+            }
+            throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+        }
+    }
+
+    static final class IndexSet extends ExprNode {
+        private final ExprNode object;
+        private final Token bracket;
+        private final ExprNode index;
+        private final ExprNode value;
+
+        IndexSet(ExprNode object, Token bracket, ExprNode index, ExprNode value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object object = this.object.evaluate(interpreter, environment);
+            Object index = this.index.evaluate(interpreter, environment);
+            return set(interpreter, object, index, bracket, this.value.evaluate(interpreter, environment));
+        }
+
+        static Object set(Interpreter interpreter, Object object, Object index, Token bracket, Object value) {
+            if (object instanceof JloxList) {
+                ((JloxList) object).set(index, bracket, value, interpreter);
+                return value;
+            }
+            if (object instanceof JloxMap) {
+                ((JloxMap) object).set(index, bracket, value, interpreter);
+                return value;
+            }
+            throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+        }
+    }
+
+    static final class ListLiteral extends ExprNode {
+        private final Token bracket;
+        private final ExprNode[] elements;
+
+        ListLiteral(Token bracket, ExprNode[] elements) {
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            ExecutionBudget.allocate(interpreter, ExecutionBudget.LIST_BYTES, bracket);
+            JloxList list = new JloxList();
+            for (ExprNode element : elements) {
+                list.add(element.evaluate(interpreter, environment), interpreter, bracket);
+            }
+            return list;
+        }
+    }
+
+    static final class And extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        And(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            // 短路 左边是 false 时不计算右边
+            if (!Interpreter.isTruthy(left)) {
+                return left;
+            }
+            return right.evaluate(interpreter, environment);
+        }
+    }
+
+    static final class Or extends ExprNode {
+        private final ExprNode left;
+        private final ExprNode right;
+
+        Or(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            // 短路 左边是 true 时不计算右边
+            if (Interpreter.isTruthy(left)) {
+                return left;
+            }
+            return right.evaluate(interpreter, environment);
+        }
+    }
+
+    static final class Negate extends ExprNode {
+        private final Token operator;
+        private final ExprNode right;
+        // 类型推导已经证明是数字
+        private final boolean numeric;
+
+        Negate(Token operator, ExprNode right, boolean numeric) {
+            this.operator = operator;
+            this.right = right;
+            this.numeric = numeric;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object right = this.right.evaluate(interpreter, environment);
+            if (!numeric && !(right instanceof Double)) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+            return -(double)right;
+        }
+    }
+
+    static final class Not extends ExprNode {
+        private final ExprNode right;
+
+        Not(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return !Interpreter.isTruthy(right.evaluate(interpreter, environment));
+        }
+    }
+
+    /**
+     * 二元运算 每个子类自己求值两边 调用处的类型信息不会和其他运算符混在一起
+     */
+    abstract static class Binary extends ExprNode {
+        final ExprNode left;
+        final Token operator;
+        final ExprNode right;
+        // 类型推导已经证明两边都是数字
+        final boolean numeric;
+
+        Binary(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+            this.numeric = numeric;
+        }
+
+        final void checkNumbers(Object left, Object right) {
+            // 类型推导已经证明两边都是数字时 不用再检查
+            if (!numeric) {
+                checkNumbers(left, right, operator);
+            }
+        }
+
+        static void checkNumbers(Object left, Object right, Token operator) {
+            if (!(left instanceof Double && right instanceof Double)) {
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+        }
+    }
+
+    static final class Subtract extends Binary {
+        Subtract(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            super(left, operator, right, numeric);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            checkNumbers(left, right);
+            return (double)left - (double)right;
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            super(left, operator, right, numeric);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            checkNumbers(left, right);
+            return (double)left * (double)right;
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            super(left, operator, right, numeric);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            checkNumbers(left, right);
+            return (double)left / (double)right;
+        }
+    }
+
+    // 类型推导证明了两边都是数字的加法
+    static final class AddNumbers extends Binary {
+        AddNumbers(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right, true);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            return (double)left + (double)right;
+        }
+    }
+
+    /**
+     * 加法 需要支持字符串连接 长字符串拼接的结果是 JloxRope
+     * strings 为 true 时类型推导已经证明两边都是字符串
+     */
+    static final class Add extends Binary {
+        private final boolean strings;
+
+        Add(ExprNode left, Token operator, ExprNode right, boolean strings) {
+            super(left, operator, right, false);
+            this.strings = strings;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            return add(interpreter, left, right, operator, strings);
+        }
+
+        static Object add(Interpreter interpreter, Object left, Object right, Token operator, boolean strings) {
+            if (strings || (JloxRope.isString(left) && JloxRope.isString(right))) {
+                ExecutionBudget budget = interpreter.budget;
+                if (budget != null) {
+                    // 追加到 JloxRope 上只复制右边 其他情况两边都要复制 按 2 字节一个字符估算
+                    long chars = ((CharSequence)right).length()
+                        + (left instanceof JloxRope ? 0 : ((CharSequence)left).length());
+                    budget.allocate(ExecutionBudget.STRING_BYTES + 2 * chars, operator);
+                }
+                return JloxRope.concat(left, right);
+            }
+            if (left instanceof Double && right instanceof Double) {
+                return (double)left + (double)right;
+            }
+            throw new RuntimeError(operator, "Operands must be numbers or strings.");
+        }
+    }
+
+    static final class Greater extends Binary {
+        Greater(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            super(left, operator, right, numeric);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            checkNumbers(left, right);
+            return (double)left > (double)right;
+        }
+    }
+
+    static final class GreaterEqual extends Binary {
+        GreaterEqual(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            super(left, operator, right, numeric);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            checkNumbers(left, right);
+            return (double)left >= (double)right;
+        }
+    }
+
+    static final class Less extends Binary {
+        Less(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            super(left, operator, right, numeric);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            checkNumbers(left, right);
+            return (double)left < (double)right;
+        }
+    }
+
+    static final class LessEqual extends Binary {
+        LessEqual(ExprNode left, Token operator, ExprNode right, boolean numeric) {
+            super(left, operator, right, numeric);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            checkNumbers(left, right);
+            return (double)left <= (double)right;
+        }
+    }
+
+    static final class Equal extends Binary {
+        Equal(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right, false);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            return Interpreter.isEqual(left, right);
+        }
+    }
+
+    static final class NotEqual extends Binary {
+        NotEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right, false);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object left = this.left.evaluate(interpreter, environment);
+            Object right = this.right.evaluate(interpreter, environment);
+            return !Interpreter.isEqual(left, right);
+        }
+    }
+
+    /**
+     * 函数调用 按参数个数分成几个类 不超过 3 个参数时放在局部变量里 不分配参数列表
+     */
+    abstract static class Call extends ExprNode {
+        final ExprNode callee;
+        final Token paren;
+
+        Call(ExprNode callee, Token paren) {
+            this.callee = callee;
+            this.paren = paren;
+        }
+
+        final JloxCallable check(Interpreter interpreter, Object callee, int count, boolean array) {
+            return check(interpreter, callee, count, array, paren);
+        }
+
+        static JloxCallable check(Interpreter interpreter, Object callee, int count, boolean array, Token paren) {
+            // 调用前检查一下 callable
+            if (!(callee instanceof JloxCallable)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            JloxCallable function = (JloxCallable)callee;
+            // 检查一下调用是否正常
+            if (count != function.arity()) {
+                throw new RuntimeError(paren, "Expect " + function.arity() + " arguments, but got " + count + ".");
+            }
+            // 函数入口 检查执行预算 参数加上函数的作用域或者新建的实例
+            ExecutionBudget budget = interpreter.budget;
+            if (budget != null) {
+                budget.tick(paren);
+                budget.allocate((array ? ExecutionBudget.ARGUMENTS_BYTES : 0)
+                    + ExecutionBudget.ARGUMENT_BYTES * count
+                    + (callee instanceof JloxClass ? ExecutionBudget.INSTANCE_BYTES : ExecutionBudget.ENVIRONMENT_BYTES),
+                    paren);
+            }
+            return function;
+        }
+
+        final RuntimeError located(RuntimeError error) {
+            return located(error, paren);
+        }
+
+        static RuntimeError located(RuntimeError error, Token paren) {
+            if (error.token == null && paren != null) {
+                // 内置函数抛出的错误不带位置 用调用处的括号补上
+                return new RuntimeError(paren, error.getMessage());
+            }
+            return error;
+        }
+    }
+
+    static final class Call0 extends Call {
+        Call0(ExprNode callee, Token paren) {
+            super(callee, paren);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object callee = this.callee.evaluate(interpreter, environment);
+            JloxCallable function = check(interpreter, callee, 0, false);
+            try {
+                return function.call0(interpreter);
+            } catch (RuntimeError error) {
+                throw located(error);
+            }
+        }
+    }
+
+    static final class Call1 extends Call {
+        private final ExprNode a;
+
+        Call1(ExprNode callee, Token paren, ExprNode a) {
+            super(callee, paren);
+            this.a = a;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object callee = this.callee.evaluate(interpreter, environment);
+            Object a = this.a.evaluate(interpreter, environment);
+            JloxCallable function = check(interpreter, callee, 1, false);
+            try {
+                return function.call1(interpreter, a);
+            } catch (RuntimeError error) {
+                throw located(error);
+            }
+        }
+    }
+
+    static final class Call2 extends Call {
+        private final ExprNode a;
+        private final ExprNode b;
+
+        Call2(ExprNode callee, Token paren, ExprNode a, ExprNode b) {
+            super(callee, paren);
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object callee = this.callee.evaluate(interpreter, environment);
+            Object a = this.a.evaluate(interpreter, environment);
+            Object b = this.b.evaluate(interpreter, environment);
+            JloxCallable function = check(interpreter, callee, 2, false);
+            try {
+                return function.call2(interpreter, a, b);
+            } catch (RuntimeError error) {
+                throw located(error);
+            }
+        }
+    }
+
+    static final class Call3 extends Call {
+        private final ExprNode a;
+        private final ExprNode b;
+        private final ExprNode c;
+
+        Call3(ExprNode callee, Token paren, ExprNode a, ExprNode b, ExprNode c) {
+            super(callee, paren);
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object callee = this.callee.evaluate(interpreter, environment);
+            Object a = this.a.evaluate(interpreter, environment);
+            Object b = this.b.evaluate(interpreter, environment);
+            Object c = this.c.evaluate(interpreter, environment);
+            JloxCallable function = check(interpreter, callee, 3, false);
+            try {
+                return function.call3(interpreter, a, b, c);
+            } catch (RuntimeError error) {
+                throw located(error);
+            }
+        }
+    }
+
+    static final class CallN extends Call {
+        private final ExprNode[] arguments;
+
+        CallN(ExprNode callee, Token paren, ExprNode[] arguments) {
+            super(callee, paren);
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object callee = this.callee.evaluate(interpreter, environment);
+            Object[] arguments = new Object[this.arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = this.arguments[i].evaluate(interpreter, environment);
+            }
+            JloxCallable function = check(interpreter, callee, arguments.length, true);
+            try {
+                return function.callN(interpreter, arguments);
+            } catch (RuntimeError error) {
+                throw located(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,784 @@
+package com.zk.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 调用栈放在堆上的执行方式 递归深度只受 --stack 给的内存限制 不受 Java 线程栈的大小限制
+ *
+ * 节点树上的每次 Lox 调用都是几层 Java 递归 调用太深时 JloxFunction 把这次调用交给这里 见 JloxFunction.execute
+ * 函数体第一次在这里执行时编译成一串指令(Code) 缓存在声明上 操作数栈和调用栈(Frame)都是数组
+ * 函数 方法 类的实例化都是压入一个新的 Frame 返回时弹出 不再递归调用 Java 方法
+ * 内置函数仍然直接调用 它们回调 Lox 函数时会在里面再启动一个 FrameMachine 这样的嵌套还在 Java 栈上
+ * 所以经过内置函数的递归(例如在 parallelMap 的回调里递归)深度有限 超过 Interpreter.MAX_NESTED_FRAMES 时报告 Stack overflow.
+ *
+ * 运算 作用域 预算 采样分析 JFR 事件和节点树的处理一样 共用 ExprNode 上的静态方法
+ * 深度递归用的是堆内存 --stack=SIZE 限制所有栈帧加起来的估算大小 超过时报告 Stack overflow.
+ */
+final class FrameMachine {
+
+    // 一层栈帧的估算大小(字节) 包括 Frame 对象 函数的作用域和参数
+    static final long FRAME_BYTES = 256;
+    // 一次 run 自己占用的 Java 栈帧 加上内置函数回调时经过的几层
+    private static final int MACHINE_FRAMES = 16;
+
+    private static final int CONSTANT = 0;
+    private static final int POP = 1;
+    private static final int LOCAL = 2;
+    private static final int ENCLOSING = 3;
+    private static final int GLOBAL = 4;
+    private static final int ASSIGN_LOCAL = 5;
+    private static final int ASSIGN_ENCLOSING = 6;
+    private static final int ASSIGN_GLOBAL = 7;
+    private static final int DEFINE = 8;
+    private static final int SUPER = 9;
+    private static final int GET = 10;
+    private static final int CHECK_INSTANCE = 11;
+    private static final int SET_FIELD = 12;
+    private static final int INDEX = 13;
+    private static final int INDEX_SET = 14;
+    private static final int NEW_LIST = 15;
+    private static final int APPEND = 16;
+    private static final int NEGATE = 17;
+    private static final int NOT = 18;
+    private static final int SUBTRACT = 19;
+    private static final int MULTIPLY = 20;
+    private static final int DIVIDE = 21;
+    private static final int ADD = 22;
+    private static final int GREATER = 23;
+    private static final int GREATER_EQUAL = 24;
+    private static final int LESS = 25;
+    private static final int LESS_EQUAL = 26;
+    private static final int EQUAL = 27;
+    private static final int NOT_EQUAL = 28;
+    private static final int JUMP = 29;
+    private static final int JUMP_IF_FALSE = 30;
+    private static final int JUMP_IF_TRUE = 31;
+    private static final int POP_JUMP_IF_FALSE = 32;
+    private static final int TICK = 33;
+    private static final int PRINT = 34;
+    private static final int ENTER = 35;
+    private static final int EXIT = 36;
+    private static final int EXECUTE = 37;
+    private static final int CALL = 38;
+    private static final int RETURN = 39;
+
+    /**
+     * 一个函数体编译出来的指令 操作数跟在操作码后面 名字 token 常量都放在 constants 里
+     */
+    static final class Code {
+        final int[] code;
+        final Object[] constants;
+
+        Code(int[] code, Object[] constants) {
+            this.code = code;
+            this.constants = constants;
+        }
+    }
+
+    private static final class Frame {
+        final Code code;
+        final JloxFunction function;
+        // 创建这一层的调用处 入口的那一层是 null 由外面的调用节点补上位置
+        final Token paren;
+        // 这一层在操作数栈上的起点
+        final int base;
+        Environment environment;
+        int pc;
+        JfrEvents.FunctionCall event;
+        // 纯函数缓存的键 返回时写入缓存
+        MemoCache.Key key;
+        // 类的实例化 初始化方法返回之后才算完成
+        JloxInstance instance;
+        JfrEvents.Instantiation instantiation;
+
+        Frame(Code code, JloxFunction function, Token paren, int base, Environment environment) {
+            this.code = code;
+            this.function = function;
+            this.paren = paren;
+            this.base = base;
+            this.environment = environment;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private Object[] stack = new Object[64];
+    private int top = 0;
+    private Frame[] frames = new Frame[16];
+    private int depth = 0;
+
+    private FrameMachine(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * 在堆上的调用栈里执行 function 的这次调用 environment 里已经定义好参数
+     */
+    static Object run(Interpreter interpreter, JloxFunction function, Environment environment) {
+        if (interpreter.frames + MACHINE_FRAMES > Interpreter.MAX_NESTED_FRAMES) {
+            // 经过内置函数的递归 每层都占用 Java 栈 没法换到堆上 由外面的调用节点补上位置
+            throw new RuntimeError(null, "Stack overflow.");
+        }
+        FrameMachine machine = new FrameMachine(interpreter);
+        interpreter.frames += MACHINE_FRAMES;
+        try {
+            machine.enter(function, environment, null);
+            return machine.loop();
+        } finally {
+            // 出错时还没返回的栈帧 也要恢复影子调用栈 JFR 事件和占用的栈内存
+            while (machine.depth > 0) {
+                machine.leave();
+            }
+            interpreter.frames -= MACHINE_FRAMES;
+        }
+    }
+
+    static Code code(Stmt.Function declaration) {
+        // 多个线程同时编译时各自生成一份 结果一样 用哪份都可以
+        Code code = declaration.code;
+        if (code == null) {
+            code = new Assembler().function(declaration);
+            declaration.code = code;
+        }
+        return code;
+    }
+
+    private Frame enter(JloxFunction function, Environment environment, Token paren) {
+        interpreter.stackBytes += FRAME_BYTES;
+        if (interpreter.stackBytes > interpreter.maxStackBytes) {
+            interpreter.stackBytes -= FRAME_BYTES;
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+        Frame frame = new Frame(code(function.declaration()), function, paren, top, environment);
+        frame.event = function.enter(interpreter);
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        frames[depth++] = frame;
+        return frame;
+    }
+
+    private Frame leave() {
+        Frame frame = frames[--depth];
+        frames[depth] = null;
+        interpreter.stackBytes -= FRAME_BYTES;
+        frame.function.leave(interpreter, frame.event);
+        if (frame.instantiation != null) {
+            instantiated(frame.instantiation);
+        }
+        return frame;
+    }
+
+    private static void instantiated(JfrEvents.Instantiation event) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+
+    private void push(Object value) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--top];
+        stack[top] = null;
+        return value;
+    }
+
+    private Object peek() {
+        return stack[top - 1];
+    }
+
+    private Object loop() {
+        Frame frame = frames[depth - 1];
+        try {
+            for (;;) {
+                int[] code = frame.code.code;
+                Object[] constants = frame.code.constants;
+                int op = code[frame.pc++];
+                switch (op) {
+                    case CONSTANT:
+                        push(constants[code[frame.pc++]]);
+                        break;
+                    case POP:
+                        pop();
+                        break;
+                    case LOCAL:
+                        push(frame.environment.lookup((String) constants[code[frame.pc++]]));
+                        break;
+                    case ENCLOSING: {
+                        int distance = code[frame.pc++];
+                        push(frame.environment.ancestor(distance).lookup((String) constants[code[frame.pc++]]));
+                        break;
+                    }
+                    case GLOBAL:
+                        push(interpreter.globals.get((Token) constants[code[frame.pc++]]));
+                        break;
+                    case ASSIGN_LOCAL:
+                        frame.environment.define((String) constants[code[frame.pc++]], peek());
+                        break;
+                    case ASSIGN_ENCLOSING: {
+                        int distance = code[frame.pc++];
+                        frame.environment.ancestor(distance).define((String) constants[code[frame.pc++]], peek());
+                        break;
+                    }
+                    case ASSIGN_GLOBAL:
+                        interpreter.globals.assign((Token) constants[code[frame.pc++]], peek());
+                        break;
+                    case DEFINE:
+                        frame.environment.define((String) constants[code[frame.pc++]], pop());
+                        break;
+                    case SUPER: {
+                        int distance = code[frame.pc++];
+                        push(ExprNode.Super.bind(frame.environment, distance, (Token) constants[code[frame.pc++]]));
+                        break;
+                    }
+                    case GET:
+                        push(ExprNode.Get.get(pop(), (Token) constants[code[frame.pc++]]));
+                        break;
+                    case CHECK_INSTANCE:
+                        ExprNode.Set.checkInstance(peek());
+                        break;
+                    case SET_FIELD: {
+                        Object value = pop();
+                        ExprNode.Set.set(interpreter, pop(), (Token) constants[code[frame.pc++]], value);
+                        push(null);
+                        break;
+                    }
+                    case INDEX: {
+                        Object index = pop();
+                        push(ExprNode.Index.get(pop(), index, (Token) constants[code[frame.pc++]]));
+                        break;
+                    }
+                    case INDEX_SET: {
+                        Object value = pop();
+                        Object index = pop();
+                        Token bracket = (Token) constants[code[frame.pc++]];
+                        push(ExprNode.IndexSet.set(interpreter, pop(), index, bracket, value));
+                        break;
+                    }
+                    case NEW_LIST:
+                        ExecutionBudget.allocate(interpreter, ExecutionBudget.LIST_BYTES,
+                            (Token) constants[code[frame.pc++]]);
+                        push(new JloxList());
+                        break;
+                    case APPEND: {
+                        Object value = pop();
+                        ((JloxList) peek()).add(value, interpreter, (Token) constants[code[frame.pc++]]);
+                        break;
+                    }
+                    case NEGATE: {
+                        Object right = pop();
+                        if (!(right instanceof Double)) {
+                            throw new RuntimeError((Token) constants[code[frame.pc]], "Operand must be a number.");
+                        }
+                        frame.pc++;
+                        push(-(double) right);
+                        break;
+                    }
+                    case NOT:
+                        push(!Interpreter.isTruthy(pop()));
+                        break;
+                    case SUBTRACT:
+                    case MULTIPLY:
+                    case DIVIDE:
+                    case GREATER:
+                    case GREATER_EQUAL:
+                    case LESS:
+                    case LESS_EQUAL: {
+                        Object right = pop();
+                        Object left = pop();
+                        ExprNode.Binary.checkNumbers(left, right, (Token) constants[code[frame.pc++]]);
+                        push(arithmetic(op, (double) left, (double) right));
+                        break;
+                    }
+                    case ADD: {
+                        Object right = pop();
+                        Object left = pop();
+                        push(ExprNode.Add.add(interpreter, left, right, (Token) constants[code[frame.pc++]], false));
+                        break;
+                    }
+                    case EQUAL: {
+                        Object right = pop();
+                        push(Interpreter.isEqual(pop(), right));
+                        break;
+                    }
+                    case NOT_EQUAL: {
+                        Object right = pop();
+                        push(!Interpreter.isEqual(pop(), right));
+                        break;
+                    }
+                    case JUMP:
+                        frame.pc = code[frame.pc];
+                        break;
+                    case JUMP_IF_FALSE:
+                        frame.pc = Interpreter.isTruthy(peek()) ? frame.pc + 1 : code[frame.pc];
+                        break;
+                    case JUMP_IF_TRUE:
+                        frame.pc = Interpreter.isTruthy(peek()) ? code[frame.pc] : frame.pc + 1;
+                        break;
+                    case POP_JUMP_IF_FALSE:
+                        frame.pc = Interpreter.isTruthy(pop()) ? frame.pc + 1 : code[frame.pc];
+                        break;
+                    case TICK: {
+                        // 循环回边 检查执行预算
+                        Token keyword = (Token) constants[code[frame.pc++]];
+                        if (interpreter.budget != null) {
+                            interpreter.budget.tick(keyword);
+                        }
+                        break;
+                    }
+                    case PRINT: {
+                        Object value = pop();
+                        if (Jlox.launchedAt != 0) {
+                            Jlox.firstOutput();
+                        }
+                        interpreter.output.println(value);
+                        break;
+                    }
+                    case ENTER:
+                        if (interpreter.budget != null) {
+                            interpreter.budget.charge(ExecutionBudget.ENVIRONMENT_BYTES);
+                        }
+                        frame.environment = new Environment(frame.environment);
+                        break;
+                    case EXIT:
+                        frame.environment = frame.environment.enclosing;
+                        break;
+                    case EXECUTE:
+                        // 函数和类的声明 和节点树一样创建 函数体以后在哪种方式上执行都可以
+                        ((StmtNode) constants[code[frame.pc++]]).execute(interpreter, frame.environment);
+                        break;
+                    case CALL: {
+                        int count = code[frame.pc++];
+                        Token paren = (Token) constants[code[frame.pc++]];
+                        frame = call(count, paren, frame);
+                        break;
+                    }
+                    case RETURN: {
+                        Object value = pop();
+                        Frame done = leave();
+                        Object result = done.function.result(value);
+                        if (done.key != null) {
+                            done.function.memo().put(done.key, result);
+                        }
+                        if (done.instance != null) {
+                            result = done.instance;
+                        }
+                        while (top > done.base) {
+                            pop();
+                        }
+                        if (depth == 0) {
+                            return result;
+                        }
+                        frame = frames[depth - 1];
+                        push(result);
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Unexpected instruction " + op);
+                }
+            }
+        } catch (RuntimeError error) {
+            // 和节点树一样 不带位置的错误用创建这一层的调用处补上
+            throw ExprNode.Call.located(error, frames[depth - 1].paren);
+        }
+    }
+
+    private static Object arithmetic(int op, double left, double right) {
+        switch (op) {
+            case SUBTRACT:
+                return left - right;
+            case MULTIPLY:
+                return left * right;
+            case DIVIDE:
+                return left / right;
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
+    /**
+     * 调用 操作数栈上是被调用的值和 count 个参数 返回接下来要执行的栈帧
+     * Lox 函数和类压入新的栈帧 内置函数直接调用 结果压回操作数栈
+     */
+    private Frame call(int count, Token paren, Frame frame) {
+        Object callee = stack[top - count - 1];
+        JloxCallable function = ExprNode.Call.check(interpreter, callee, count, count > 3, paren);
+        Object[] arguments = Arrays.copyOfRange(stack, top - count, top);
+        for (int i = 0; i <= count; i++) {
+            pop();
+        }
+
+        if (function instanceof JloxFunction) {
+            JloxFunction callable = (JloxFunction) function;
+            MemoCache.Key key = null;
+            if (callable.memo() != null) {
+                key = new MemoCache.Key(arguments);
+                Object cached = callable.memo().get(key);
+                if (cached != MemoCache.MISSING) {
+                    push(cached);
+                    return frame;
+                }
+            }
+            Frame next = enter(callable, callable.scope(arguments), paren);
+            next.key = key;
+            return next;
+        }
+
+        if (function instanceof JloxClass) {
+            JloxClass klass = (JloxClass) function;
+            JfrEvents.Instantiation event = new JfrEvents.Instantiation();
+            event.begin();
+            event.className = klass.name;
+            JloxInstance instance = new JloxInstance(klass);
+            JloxFunction initializer = klass.findMethod("init");
+            if (initializer == null) {
+                instantiated(event);
+                push(instance);
+                return frame;
+            }
+            JloxFunction bound = initializer.bind(instance);
+            Frame next = enter(bound, bound.scope(arguments), paren);
+            next.instance = instance;
+            next.instantiation = event;
+            return next;
+        }
+
+        try {
+            push(function.call(interpreter, Arrays.asList(arguments)));
+        } catch (RuntimeError error) {
+            throw ExprNode.Call.located(error, paren);
+        }
+        return frame;
+    }
+
+    /**
+     * 把函数体编译成 Code 变量的作用域距离 类型都用 Resolver 写在语法树上的结果
+     */
+    private static final class Assembler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        private int[] code = new int[64];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+
+        Code function(Stmt.Function declaration) {
+            statements(declaration.body);
+            // 没有执行 return 时返回 nil
+            emit(CONSTANT, constant(null));
+            emit(RETURN);
+            return new Code(Arrays.copyOf(code, size), constants.toArray());
+        }
+
+        private void statements(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        private void emit(int... words) {
+            for (int word : words) {
+                if (size == code.length) {
+                    code = Arrays.copyOf(code, size * 2);
+                }
+                code[size++] = word;
+            }
+        }
+
+        private int constant(Object value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                indexes.put(value, index);
+            }
+            return index;
+        }
+
+        // 跳转指令 目标先空着 返回要回填的位置
+        private int jump(int op) {
+            emit(op, -1);
+            return size - 1;
+        }
+
+        private void patch(int at) {
+            code[at] = size;
+        }
+
+        private void variable(Token name, int depth) {
+            // depth 由 Resolver 写在语法树节点上 -1 表示全局变量
+            if (depth == -1) {
+                emit(GLOBAL, constant(name));
+            } else if (depth == 0) {
+                emit(LOCAL, constant(name.lexeme));
+            } else {
+                emit(ENCLOSING, depth, constant(name.lexeme));
+            }
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            int operator = constant(expr.operator);
+            switch (expr.operator.type) {
+                case MINUS:
+                    emit(SUBTRACT, operator);
+                    break;
+                case STAR:
+                    emit(MULTIPLY, operator);
+                    break;
+                case SLASH:
+                    emit(DIVIDE, operator);
+                    break;
+                case PLUS:
+                    emit(ADD, operator);
+                    break;
+                case GREATER:
+                    emit(GREATER, operator);
+                    break;
+                case GREATER_EQUAL:
+                    emit(GREATER_EQUAL, operator);
+                    break;
+                case LESS:
+                    emit(LESS, operator);
+                    break;
+                case LESS_EQUAL:
+                    emit(LESS_EQUAL, operator);
+                    break;
+                case EQUAL_EQUAL:
+                    emit(EQUAL);
+                    break;
+                case BANG_EQUAL:
+                    emit(NOT_EQUAL);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected binary operator " + expr.operator.type);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            expr.callee.accept(this);
+            for (Expr argument : expr.arguments) {
+                argument.accept(this);
+            }
+            emit(CALL, expr.arguments.size(), constant(expr.paren));
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            expr.object.accept(this);
+            emit(GET, constant(expr.name));
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            // 和节点树一样 先检查对象 再计算值
+            expr.object.accept(this);
+            emit(CHECK_INSTANCE);
+            expr.value.accept(this);
+            emit(SET_FIELD, constant(expr.name));
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            emit(SUPER, expr.depth, constant(expr.method));
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            variable(expr.keyword, expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            expr.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            emit(CONSTANT, constant(expr.value));
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            // 短路 左边的值已经决定结果时 直接把它留在栈上
+            expr.left.accept(this);
+            int end = jump(expr.operator.type == TokenType.OR ? JUMP_IF_TRUE : JUMP_IF_FALSE);
+            emit(POP);
+            expr.right.accept(this);
+            patch(end);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            expr.right.accept(this);
+            switch (expr.operator.type) {
+                case MINUS:
+                    emit(NEGATE, constant(expr.operator));
+                    break;
+                case BANG:
+                    emit(NOT);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected unary operator " + expr.operator.type);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            variable(expr.name, expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            expr.value.accept(this);
+            if (expr.depth == -1) {
+                emit(ASSIGN_GLOBAL, constant(expr.name));
+            } else if (expr.depth == 0) {
+                emit(ASSIGN_LOCAL, constant(expr.name.lexeme));
+            } else {
+                emit(ASSIGN_ENCLOSING, expr.depth, constant(expr.name.lexeme));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            expr.object.accept(this);
+            expr.index.accept(this);
+            emit(INDEX, constant(expr.bracket));
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSetExpr(Expr.IndexSet expr) {
+            expr.object.accept(this);
+            expr.index.accept(this);
+            expr.value.accept(this);
+            emit(INDEX_SET, constant(expr.bracket));
+            return null;
+        }
+
+        @Override
+        public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+            int bracket = constant(expr.bracket);
+            emit(NEW_LIST, bracket);
+            for (Expr element : expr.elements) {
+                element.accept(this);
+                emit(APPEND, bracket);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            emit(ENTER);
+            statements(stmt.statements);
+            emit(EXIT);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            emit(EXECUTE, constant(Compiler.compile(stmt)));
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            stmt.expression.accept(this);
+            emit(POP);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            emit(EXECUTE, constant(Compiler.compile(stmt)));
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            stmt.condition.accept(this);
+            int otherwise = jump(POP_JUMP_IF_FALSE);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch == null) {
+                patch(otherwise);
+                return null;
+            }
+            int end = jump(JUMP);
+            patch(otherwise);
+            stmt.elseBranch.accept(this);
+            patch(end);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            stmt.expression.accept(this);
+            emit(PRINT);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value == null) {
+                emit(CONSTANT, constant(null));
+            } else {
+                stmt.value.accept(this);
+            }
+            emit(RETURN);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initializer == null) {
+                emit(CONSTANT, constant(null));
+            } else {
+                stmt.initializer.accept(this);
+            }
+            emit(DEFINE, constant(stmt.name.lexeme));
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            int loop = size;
+            stmt.condition.accept(this);
+            int end = jump(POP_JUMP_IF_FALSE);
+            stmt.body.accept(this);
+            emit(TICK, constant(stmt.keyword));
+            emit(JUMP, loop);
+            patch(end);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.zk.jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * jlox --watch 脚本文件修改之后 在不重启的情况下换上新的函数和类
+ *
+ * 文件变化时重新 Scanner + Parser + Resolver + TypeInference 整个文件 有错误时保留旧的代码
+ * 只有顶层的 fun 和 class 会被替换 并且只替换内容(token 和行号)变了的声明
+ * 顶层的 var 和其他语句不会重新执行 全局变量里的状态保持不变
+ *
+ * 正在执行的调用继续执行旧的代码 已有的实例通过原来的类对象用到新的方法 见 Interpreter.redefine
+ * 替换之后函数名不再固定 所以这个模式下不做纯函数缓存
+ */
+final class HotReload implements Runnable {
+
+    // 编辑器保存时常常连续产生几个事件 等一会儿再读
+    private static final long SETTLE_MILLIS = 50;
+
+    private final Interpreter interpreter;
+    private final Path path;
+    private String source;
+    // 顶层函数和类的名字 -> 声明的 token 文本
+    private Map<String, String> declarations;
+
+    HotReload(Interpreter interpreter, Path path, String source) {
+        // 在 watcher 线程上执行 需要自己的作用域链
+        this.interpreter = interpreter.fork();
+        this.path = path.toAbsolutePath();
+        this.source = source;
+        this.declarations = declarations(new Scanner(source).scanTokens());
+    }
+
+    void start() {
+        // 脚本可能一直不结束 输出不能留在缓冲区里等到退出
+        interpreter.output.flushEachLine(true);
+        Thread thread = new Thread(this, "jlox-watch");
+        // 脚本执行完进程就退出 不等 watcher
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        // 监听所在目录 编辑器经常先写临时文件再改名 直接监听文件会丢事件
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+            for (;;) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= path.getFileName().equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    Thread.sleep(SETTLE_MILLIS);
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException error) {
+            // 结束监听
+        } catch (IOException error) {
+            System.err.println("[reload] Can't watch " + path + ": " + error.getMessage());
+        }
+    }
+
+    /**
+     * 重新读取文件 返回替换了多少个声明 没有变化或者有错误时返回 0
+     */
+    int reload() {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        } catch (IOException error) {
+            // 文件正在被替换 下一个事件再读
+            return 0;
+        }
+        if (text.equals(source)) {
+            return 0;
+        }
+        // 先把之前 print 的内容写出去 和下面 stderr 上的 [reload] 信息按时间顺序出现
+        interpreter.output.flush();
+
+        // 前端的错误和警告都打到 stderr 有错误时不替换
+        boolean[] hadError = {false};
+        Jlox.reporter.set(new ErrorReporter() {
+            @Override
+            public void report(int line, String where, String message) {
+                hadError[0] = true;
+                System.err.println("[line: " + line + "] Error" + where + ": " + message);
+            }
+
+            @Override
+            public void warning(int line, String where, String message) {
+                System.err.println("[line: " + line + "] Warning" + where + ": " + message);
+            }
+        });
+        List<Token> tokens = new Scanner(text).scanTokens();
+        List<Stmt> statements = null;
+        try {
+            // 和 LspDocument 一样 有语法错误时语法树不完整 不再做语义分析
+            statements = new Parser(tokens).parse();
+            if (!hadError[0]) {
+                new Resolver().resolve(statements);
+            }
+            if (!hadError[0]) {
+                new TypeInference().infer(statements);
+            }
+        } finally {
+            Jlox.reporter.remove();
+        }
+        if (hadError[0]) {
+            System.err.println("[reload] " + path.getFileName() + " has errors, keeping the running code.");
+            return 0;
+        }
+
+        Map<String, String> updated = declarations(tokens);
+        int count = 0;
+        try {
+            for (Stmt stmt : statements) {
+                String name = stmt instanceof Stmt.Function ? ((Stmt.Function)stmt).name.lexeme
+                    : stmt instanceof Stmt.Class ? ((Stmt.Class)stmt).name.lexeme : null;
+                if (name != null && !updated.get(name).equals(declarations.get(name))) {
+                    interpreter.redefine(stmt);
+                    count++;
+                }
+            }
+        } catch (RuntimeError error) {
+            // 例如父类不存在 已经替换的声明保留
+            System.err.println("[reload] " + error.getMessage());
+        }
+        source = text;
+        declarations = updated;
+        System.err.println("[reload] " + path.getFileName() + ": " + count + " declaration"
+            + (count == 1 ? "" : "s") + " updated.");
+        return count;
+    }
+
+    private static Map<String, String> declarations(List<Token> tokens) {
+        // 按 token 找出顶层的 fun 和 class 从关键字到和第一个 { 配对的 } 为止
+        // 文本里带上行号 声明移动了位置也算变化 这样运行时错误报告的行号是对的
+        Map<String, String> declarations = new HashMap<>();
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (depth == 0 && (token.type == TokenType.FUN || token.type == TokenType.CLASS)
+                && i + 1 < tokens.size() && tokens.get(i + 1).type == TokenType.IDENTIFIER) {
+                String name = tokens.get(i + 1).lexeme;
+                StringBuilder text = new StringBuilder();
+                int braces = 0;
+                for (; i < tokens.size() && tokens.get(i).type != TokenType.EOF; i++) {
+                    Token part = tokens.get(i);
+                    text.append(part.line).append(' ').append(part.lexeme).append('\n');
+                    if (part.type == TokenType.LEFT_BRACE) {
+                        braces++;
+                    } else if (part.type == TokenType.RIGHT_BRACE && --braces == 0) {
+                        break;
+                    }
+                }
+                declarations.put(name, text.toString());
+                continue;
+            }
+            switch (token.type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                case LEFT_BRACKET:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                case RIGHT_BRACKET:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return declarations;
+    }
+}
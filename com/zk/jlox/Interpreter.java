@@ -1,314 +1,91 @@
 package com.zk.jlox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import com.zk.jlox.Expr.Assign;
-import com.zk.jlox.Expr.Binary;
-import com.zk.jlox.Expr.Call;
-import com.zk.jlox.Expr.Get;
-import com.zk.jlox.Expr.Grouping;
-import com.zk.jlox.Expr.Literal;
-import com.zk.jlox.Expr.Logical;
-import com.zk.jlox.Expr.Set;
-import com.zk.jlox.Expr.Super;
-import com.zk.jlox.Expr.This;
-import com.zk.jlox.Expr.Unary;
-import com.zk.jlox.Expr.Variable;
-import com.zk.jlox.Stmt.Block;
-import com.zk.jlox.Stmt.Class;
-import com.zk.jlox.Stmt.Expression;
-import com.zk.jlox.Stmt.Function;
-import com.zk.jlox.Stmt.If;
-import com.zk.jlox.Stmt.Print;
-import com.zk.jlox.Stmt.Return;
-import com.zk.jlox.Stmt.Var;
-import com.zk.jlox.Stmt.While;
-
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    @Override
-    public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        JloxClass superclass = (JloxClass)environment.getAt(distance, "super");
-        JloxInstance object = (JloxInstance)environment.getAt(distance - 1, "this");
-        JloxFunction method = superclass.findMethod(expr.method.lexeme);
-
-        if (method == null) {
-            // 父类找不到这个方法
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
-        }
-        return method.bind(object);
-    }
-
-    @Override
-    public Object visitThisExpr(This expr) {
-        return lookUpVariable(expr.keyword, expr);
-    }
-
-    @Override
-    public Object visitSetExpr(Set expr) {
-        // 先把要设置值的对象拿出来
-        Object object = evaluate(expr.object);
-        if (!(object instanceof JloxInstance)) {
-            throw new RuntimeError(null, null);
-        }
-        // 再把值计算出来
-        Object value = evaluate(expr.value);
-        ((JloxInstance) object).set(expr.name, value);
-        return null;
-    }
-
-    @Override
-    public Object visitGetExpr(Get expr) {
-        Object object = evaluate(expr.object);
-        if (object instanceof JloxInstance) {
-            return ((JloxInstance) object).get(expr.name);
-        }
-        throw new RuntimeError(expr.name, "Only instance have properties.");
-    }
-
-    @Override
-    public Void visitClassStmt(Class stmt) {
-        Object superClass = null;
-        if (stmt.superClass != null) {
-            // 运行时取出父类 并检测父类必须也是个类
-            superClass = evaluate(stmt.superClass);
-            if (!(superClass instanceof JloxClass)) {
-                throw new RuntimeError(stmt.name, "Super class must be a class.");
-            }
-        }
-
-        environment.define(stmt.name.lexeme, null);
-
-        // 将 父类 的值设置到 super 上
-        if (stmt.superClass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superClass);
-        }
-
-        Map<String, JloxFunction> methods = new HashMap<>();
-        for (Stmt.Function method: stmt.methods) {
-            // 声明类中的方法
-            JloxFunction function = new JloxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
-        }
-
-        JloxClass klass = new JloxClass(stmt.name.lexeme, (JloxClass)superClass, methods);
-
-        if (superClass != null) {
-            environment = environment.enclosing;
-        }
-        environment.assign(stmt.name, klass);
-        return null;
-    }
-
-    @Override
-    public Void visitReturnStmt(Return stmt) {
-        Object value = null;
-        if (stmt.value != null) {
-            value = evaluate(stmt.value);
-        }
-        throw new ReturnValue(value);
-    }
-
-    @Override
-    public Void visitFunctionStmt(Function stmt) {
-        // 这里是普通函数的定义
-        JloxFunction function = new JloxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
-    }
+/**
+ * 执行 Program 的运行时状态 全局作用域 输出 采样分析 执行预算
+ *
+ * 代码本身由 Compiler 编译成节点树 节点直接执行 当前作用域作为参数传递 见 ExprNode StmtNode
+ */
+class Interpreter {
+
+    final Environment globals;
+    // print 的输出目标 fork 出来的解释器共用
+    final Output output;
+    // --profile 模式下才有 其他时候为 null
+    Profiler profiler;
+    // 设置了步数 超时限制时才有 其他时候为 null
+    ExecutionBudget budget;
+
+    // 节点树上的调用最多占用的 Java 栈帧 再深的调用交给 FrameMachine 见 JloxFunction.execute
+    // 按默认的线程栈估算 给内置函数和 Java 自己的栈帧留出余量
+    static final int MAX_FRAMES = 2000;
+    // 内置函数回调 Lox 函数时 FrameMachine 一层套一层 每层都还在 Java 栈上 超过这个数时报告 Stack overflow.
+    static final int MAX_NESTED_FRAMES = 2 * MAX_FRAMES;
+    // 这个解释器上节点树调用已经占用的 Java 栈帧 每个线程有自己的解释器 见 fork
+    int frames;
+    // FrameMachine 堆上栈帧最多占用的内存 --stack=SIZE 修改 和已经占用的大小
+    long maxStackBytes = 128L << 20;
+    long stackBytes;
 
     // 解释器示例化
     Interpreter() {
-        // 定义内置函数 clock 获取当前毫秒级时间戳
-        globals.define("clock", new JloxCallable() {
-
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
-
-            @Override
-            public String toString() {
-                return "<native fun clock>";
-            }
-        });
-    }
-
-    @Override
-    public Object visitCallExpr(Call expr) {
-        // 先把调用方表达式解析出来
-        Object callee = evaluate(expr.callee);
-
-        // 再把每个入参解析出来
-        List<Object> arguments = new ArrayList<>();
-        for (Expr arg: expr.arguments) {
-            arguments.add(evaluate(arg));
-        }
-
-        // 调用前检查一下 callable
-        if (!(callee instanceof JloxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
-        }
-
-        JloxCallable function = (JloxCallable)callee;
-        // 检查一下调用是否正常
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expect " + function.arity() + " arguments, but got " + arguments.size() + ".");
-        }
-        return function.call(this, arguments);
-    }
-
-    @Override
-    public Void visitWhileStmt(While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
-        }
-        return null;
+        this(Output.standard());
     }
 
-    @Override
-    public Object visitLogicalExpr(Logical expr) {
-        // 逻辑表达式计算
-        Object left = evaluate(expr.left);  // 先计算左边的值
-        // 短路特性
-        if (expr.operator.type == TokenType.OR) {  // 如果是 or
-            if (isTruthy(left)) {  // 并且左边为 true
-                return left;  // 可以直接返回 不需要计算右边
-            }
-        } else {  // 如果不是 or 那就是 and
-            if (!isTruthy(left)) {  // 如果左边不是 true
-                return left;  // 可以直接返回 不需要计算右边
-            }
-        }
-        return evaluate(expr.right);  // 其他情况 以右边值为准
-    }
+    Interpreter(Output output) {
+        this.output = output;
+        globals = new Environment();
 
-    @Override
-    public Void visitIfStmt(If stmt) {
-        // if 语句
-        if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
-        } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
-        }
-        return null;
+        // 定义内置函数 clock spawn channel 等
+        Builtins.define(globals);
     }
 
-    @Override
-    public Void visitBlockStmt(Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    private Interpreter(Environment globals, Output output) {
+        this.globals = globals;
+        this.output = output;
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
-        try {
-            this.environment = environment;
-            for (Stmt stmt : statements) {
-                execute(stmt);
-            }
-        } finally {
-            this.environment = previous;
-        }
+    Interpreter fork() {
+        // 给另一个线程用的解释器 共享全局变量
+        Interpreter interpreter = new Interpreter(globals, output);
+        interpreter.profiler = profiler;
+        interpreter.budget = budget == null ? null : budget.fork();
+        interpreter.maxStackBytes = maxStackBytes;
+        return interpreter;
     }
 
-    @Override
-    public Object visitAssignExpr(Assign expr) {
-        // 变量赋值语句
-        Object value = evaluate(expr.value);
-        // environment.assign(expr.name, value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
-        } else {
-            globals.assign(expr.name, value);
+    /**
+     * 热重载 用新的声明替换全局的函数或类 只在 fork 出来的解释器上调用 见 HotReload
+     *
+     * 函数直接换成新的 JloxFunction 正在执行的调用继续用旧的
+     * 已经存在的类对象原地换上新的方法和父类 已有的实例和子类都会用到新的方法
+     */
+    void redefine(Stmt declaration) {
+        StmtNode node = Compiler.compile(declaration);
+        if (node instanceof StmtNode.Function) {
+            Stmt.Function function = (Stmt.Function)declaration;
+            globals.define(function.name.lexeme, ((StmtNode.Function)node).create(globals, false));
+            return;
         }
-        return value;  // 这里可以返回 null 赋值语句本身是一个操作 这个操作没有返回值
-    }
-
-    @Override
-    public Object visitVariableExpr(Variable expr) {
-        // 变量表达式 即变量访问
-        // return environment.get(expr.name);
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-          return environment.getAt(distance, name.lexeme);
+        Stmt.Class stmt = (Stmt.Class)declaration;
+        JloxClass klass = ((StmtNode.Class)node).create(this, globals);
+        Object existing = globals.getAt(0, stmt.name.lexeme);
+        if (existing instanceof JloxClass) {
+            ((JloxClass)existing).redefine(klass);
         } else {
-          return globals.get(name);
-        }
-    }
-
-    @Override
-    public Void visitVarStmt(Var stmt) {
-        // 变量声明语句
-        Object value = null;
-        if (stmt.initializer != null) {
-            value = evaluate(stmt.initializer);
-        }
-        environment.define(stmt.name.lexeme, value);
-        return null;
-    }
-
-    @Override
-    public Void visitExpressionStmt(Expression stmt) {
-        evaluate(stmt.expression);
-        return null;
-    }
-
-    @Override
-    public Void visitPrintStmt(Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringfy(value));
-        return null;
-    }
-
-    void interpret(List<Stmt> statements) {
-        try {
-            for (Stmt stmt: statements) {
-                execute(stmt);
-            }
-        } catch (RuntimeError error) {
-            Jlox.runtimeError(error);
+            globals.define(stmt.name.lexeme, klass);
         }
     }
 
-    private void execute(Stmt stmt) {
-        // 执行语句
-        stmt.accept(this);
-    }
-
-    void interpret(Expr expr) {
+    void interpret(Program program) {
         try {
-            Object value = evaluate(expr);
-            System.out.println(stringfy(value));
+            program.code.execute(this, globals);
         } catch (RuntimeError error) {
+            JfrEvents.runtimeError(error);
             Jlox.runtimeError(error);
         }
     }
 
-    private String stringfy(Object value) {
+    static String stringfy(Object value) {
         if (value == null) {
             return "nil";
         }
@@ -322,61 +99,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return value.toString();
     }
 
-    @Override
-    public Object visitBinaryExpr(Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case MINUS:
-                // 减法
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
-            case STAR:
-                // 乘法
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
-            case SLASH:
-                // 除法
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
-            case PLUS:
-                // 加法 需要支持字符串连接
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
-                throw new RuntimeError(expr.operator, "Operands must be numbers or strings.");
-            case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
-            case BANG_EQUAL:
-                return !isEqual(left, right);
-        }
-        return null;
-    }
-
-    private void checkNumberOperands(Token token, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) {
-            return;
-        }
-        throw new RuntimeError(token, "Operands must be numbers.");
-    }
-
-    private boolean isEqual(Object left, Object right) {
+    static boolean isEqual(Object left, Object right) {
         // 判断两个对象是否相等
         if (left == null && right == null) {
             return true;
@@ -384,38 +107,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (left == null) {
             return false;
         }
-        return left.equals(right);
-    }
-
-    @Override
-    public Object visitGroupingExpr(Grouping expr) {
-        return evaluate(expr.expression);
-    }
-
-    @Override
-    public Object visitLiteralExpr(Literal expr) {
-        return expr.value;
-    }
-
-    @Override
-    public Object visitUnaryExpr(Unary expr) {
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case MINUS:
-                return -(double)right;
-            case BANG:
-                return !isTruthy(right);
+        if (left instanceof JloxRope || right instanceof JloxRope) {
+            // 拼接出来的字符串按内容比较
+            return JloxRope.isString(left) && JloxRope.isString(right)
+                && left.toString().equals(right.toString());
         }
-        return null;
-    }
-
-    private Object evaluate(Expr expression) {
-        // 执行表达式
-        return expression.accept(this);
+        return left.equals(right);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -0,0 +1,66 @@
+package com.zk.jlox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder 自定义事件 没有开启录制时 shouldCommit 直接返回 false
+ *
+ * 函数调用事件默认只记录超过 1 ms 的调用 阈值可以在 resources/lox.jfc 里修改 例如
+ *   -XX:StartFlightRecording:settings=default,settings=resources/lox.jfc
+ */
+final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    @Name("com.zk.jlox.FunctionCall")
+    @Label("Lox Function Call")
+    @Description("Execution of a Lox function or method, from entry to exit")
+    @Category("Lox")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class FunctionCall extends Event {
+        @Label("Function")
+        String name;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("com.zk.jlox.Instantiation")
+    @Label("Lox Instantiation")
+    @Description("Creation of a Lox instance, including its initializer")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Instantiation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("com.zk.jlox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static class RuntimeErrorEvent extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    static void runtimeError(RuntimeError error) {
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (event.shouldCommit()) {
+            event.message = error.getMessage();
+            event.line = error.token == null ? 0 : error.token.line;
+            event.commit();
+        }
+    }
+}
@@ -6,13 +6,34 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class Jlox {
 
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // 当前线程上的前端错误交给谁处理 没有设置时打印到 stdout
+    static final ThreadLocal<ErrorReporter> reporter = new ThreadLocal<>();
+    // spawn 出来的任务也可能报告运行时错误
+    static volatile boolean hadRuntimeError = false;
     private static final Interpreter interpreter = new Interpreter();
+    private static Profiler profiler;
+    // 快速启动模式下由启动脚本传入的启动时刻(毫秒) 用来统计首次输出的耗时 0 表示不统计
+    static final long launchedAt = Long.getLong("jlox.launchedAt", 0L);
+    private static boolean hadOutput = false;
+    // --max-steps=N --timeout=MS 每次执行的预算 0 表示不限制
+    private static long maxSteps = 0;
+    private static long timeoutMillis = 0;
+    // --max-memory=SIZE 每次执行最多分配的内存 估算值
+    private static long maxBytes = 0;
+    // --no-memo 关闭纯函数的结果缓存
+    private static boolean memoize = true;
+    // --watch 脚本文件修改后热重载其中的函数和类
+    private static boolean watch = false;
+    // --snapshot=FILE 执行前从快照恢复全局变量 --write-snapshot=FILE 执行完把全局变量写成快照
+    private static String snapshot;
+    private static String writeSnapshot;
 
     public static void main(String[] args) throws IOException {
         // Expr expression = new Expr.Binary(
@@ -25,17 +46,97 @@ public class Jlox {
 
         // System.out.println(new AstPrinter().print(expression));
 
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        boolean lsp = false;
+        int options = 0;
+        for (; options < args.length && args[options].startsWith("--"); options++) {
+            String option = args[options];
+            if (option.equals("--profile")) {
+                // 采样分析模式 结果写到 <script>.collapsed
+                profiler = new Profiler();
+                interpreter.profiler = profiler;
+            } else if (option.equals("--lsp")) {
+                // 语言服务器模式 通过 stdin stdout 通信
+                lsp = true;
+            } else if (option.startsWith("--stack=")) {
+                // 深度递归时堆上的调用栈最多占用的内存 见 FrameMachine
+                interpreter.maxStackBytes = parseSize(option.substring("--stack=".length()));
+            } else if (option.startsWith("--max-steps=")) {
+                maxSteps = parseCount(option.substring("--max-steps=".length()));
+            } else if (option.startsWith("--timeout=")) {
+                timeoutMillis = parseCount(option.substring("--timeout=".length()));
+            } else if (option.startsWith("--max-memory=")) {
+                maxBytes = parseSize(option.substring("--max-memory=".length()));
+            } else if (option.equals("--no-memo")) {
+                memoize = false;
+            } else if (option.equals("--watch")) {
+                watch = true;
+            } else if (option.startsWith("--snapshot=")) {
+                snapshot = option.substring("--snapshot=".length());
+            } else if (option.startsWith("--write-snapshot=")) {
+                writeSnapshot = option.substring("--write-snapshot=".length());
+            } else {
+                usage();
+            }
+        }
+        // 多个脚本按顺序组成一个程序 热重载只支持单个文件
+        List<String> paths = Arrays.asList(args).subList(options, args.length);
+        if (watch && paths.size() > 1) {
+            usage();
+        }
+
+        if (lsp) {
+            System.exit(new LanguageServer(System.in, System.out).serve());
+        } else if (paths.size() == 1) {
+            runFile(paths.get(0));
+        } else if (paths.size() > 1) {
+            runFiles(paths);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--profile] [--lsp] [--stack=SIZE] [--max-steps=N] [--timeout=MS] [--max-memory=SIZE] [--no-memo] [--watch]\n"
+            + "            [--snapshot=FILE] [--write-snapshot=FILE] [script...]");
+        System.exit(64);
+    }
+
+    private static long parseCount(String text) {
+        // 步数和毫秒数 不支持后缀 k m g 是 1024 的幂 用在这里容易误解
+        try {
+            long count = Long.parseLong(text);
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException error) {
+            // 落到下面的 usage
+        }
+        usage();
+        return 0;
+    }
+
+    private static long parseSize(String text) {
+        // 支持 k m g 后缀 例如 --stack=2g
+        long unit = 1;
+        char suffix = text.isEmpty() ? ' ' : Character.toLowerCase(text.charAt(text.length() - 1));
+        if (suffix == 'k' || suffix == 'm' || suffix == 'g') {
+            unit = suffix == 'k' ? 1L << 10 : suffix == 'm' ? 1L << 20 : 1L << 30;
+            text = text.substring(0, text.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(text) * unit;
+            if (size > 0) {
+                return size;
+            }
+        } catch (NumberFormatException error) {
+            // 落到下面的 usage
+        }
+        usage();
+        return 0;
+    }
+
     private static void runPrompt() throws IOException {
+        restoreSnapshot();
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
 
@@ -45,48 +146,106 @@ public class Jlox {
             if (line == null) {
                 break;
             }
-            run(line);
-            hadError = false;
+            // REPL 的每一行不是完整的程序 后面的输入可能重新定义前面的函数 不做纯函数缓存
+            run(line, false);
         }
     }
 
     public static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) {
+        runFiles(Collections.singletonList(path));
+    }
+
+    /**
+     * 多个文件时 前端在多个核上并行处理 见 Program.compile(List, List, boolean)
+     */
+    public static void runFiles(List<String> paths) throws IOException {
+        List<String> sources = new ArrayList<>();
+        for (String path : paths) {
+            sources.add(new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset()));
+        }
+        if (profiler != null) {
+            profiler.start();
+        }
+        if (watch) {
+            // 热重载会替换全局的函数 纯函数的分析结果不再成立
+            new HotReload(interpreter, Paths.get(paths.get(0)), sources.get(0)).start();
+        }
+        restoreSnapshot();
+        // 快照里的函数可能给脚本的全局变量赋值 Resolver 看不到 也不能做纯函数缓存
+        boolean pure = memoize && !watch && snapshot == null;
+        // 只有一个文件时诊断信息不加文件名前缀
+        boolean compiled = paths.size() == 1 ? run(sources.get(0), pure)
+            : run(Program.compile(paths, sources, pure));
+        if (profiler != null) {
+            profiler.stop();
+            profiler.writeCollapsed(paths.get(0) + ".collapsed");
+            profiler.printTable(System.err);
+        }
+        if (!compiled) {
             System.exit(65);
         }
         if (hadRuntimeError) {
             System.exit(70);
         }
+        if (writeSnapshot != null) {
+            try {
+                Snapshot.write(interpreter, Paths.get(writeSnapshot));
+            } catch (IOException error) {
+                System.err.println("[snapshot] " + error.getMessage());
+                System.exit(74);
+            }
+        }
     }
 
-    private static void run(String string) {
-        // 扫描器 转化 token
-        Scanner scanner = new Scanner(string);
-        List<Token> tokens = scanner.scanTokens();
-
-        // for (Token t: tokens) {
-        //     System.out.println(t);
-        // }
-
-        // 解析器 生成语句
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        if (hadError) {
+    private static void restoreSnapshot() {
+        if (snapshot == null) {
             return;
         }
+        try {
+            Snapshot.read(interpreter, Paths.get(snapshot));
+        } catch (IOException error) {
+            System.err.println("[snapshot] " + error.getMessage());
+            System.exit(74);
+        }
+    }
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if (hadError) {
-            return;
+    private static boolean run(String string, boolean memoize) {
+        // 扫描 解析 语义分析 得到可以重复执行的 Program
+        return run(Program.compile(string, memoize));
+    }
+
+    /**
+     * 编译有错误时 program 是 null 错误已经打印过 返回 false
+     */
+    private static boolean run(Program program) {
+        if (program == null) {
+            return false;
         }
 
         // System.out.println(new AstPrinter().print(expression));
+        execute(program);
+        return true;
+    }
+
+    private static void execute(Program program) {
+        // 每次执行都从完整的预算开始 REPL 里的每一行也是
+        if (maxSteps > 0 || timeoutMillis > 0 || maxBytes > 0) {
+            interpreter.budget = new ExecutionBudget(maxSteps, timeoutMillis, maxBytes);
+        }
 
-        // 解释器执行语句
-        interpreter.interpret(statements);
+        // 解释器执行语句 执行完把缓冲的输出写出去
+        try {
+            interpreter.interpret(program);
+        } finally {
+            interpreter.output.flush();
+        }
+    }
+
+    static synchronized void firstOutput() {
+        if (!hadOutput) {
+            hadOutput = true;
+            System.err.println("[startup] first output after " + (System.currentTimeMillis() - launchedAt) + " ms");
+        }
     }
 
     static void error(int line, String message) {
@@ -94,9 +253,25 @@ public class Jlox {
     }
 
     private static void report(int line, String where, String message) {
+        ErrorReporter custom = reporter.get();
+        if (custom != null) {
+            custom.report(line, where, message);
+            return;
+        }
         System.out.println("[line: " + line + "] Error " + where + ": " + message);
     }
 
+    static void warning(Token token, String message) {
+        String where = token.type == TokenType.EOF ? " at end" : " at '" + token.lexeme + "'";
+        ErrorReporter custom = reporter.get();
+        if (custom != null) {
+            custom.warning(token.line, where, message);
+            return;
+        }
+        // 警告打印到 stderr 不混进脚本自己的输出里
+        System.err.println("[line: " + token.line + "] Warning" + where + ": " + message);
+    }
+
     static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
             report(token.line, " at end", message);
@@ -106,6 +281,11 @@ public class Jlox {
     }
 
     public static void runtimeError(RuntimeError error) {
+        if (Metrics.ENABLED) {
+            Metrics.RUNTIME_ERRORS.increment();
+        }
+        // 先把错误之前 print 的内容写出去 终端上的顺序才是对的
+        interpreter.output.flush();
         System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
     }
@@ -2,7 +2,40 @@ package com.zk.jlox;
 
 import java.util.List;
 
+/**
+ * 可以调用的值: 函数 类 内置函数
+ *
+ * 调用处按实参个数选择 call0 到 call3 参数直接通过 Java 参数传递 不需要分配参数列表
+ * 超过 3 个参数时才用数组 callN
+ */
 interface JloxCallable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+
+    Object call0(Interpreter interpreter);
+
+    Object call1(Interpreter interpreter, Object a);
+
+    Object call2(Interpreter interpreter, Object a, Object b);
+
+    Object call3(Interpreter interpreter, Object a, Object b, Object c);
+
+    Object callN(Interpreter interpreter, Object[] arguments);
+
+    /**
+     * 从 Java 代码调用时的通用入口 按参数个数分发
+     */
+    default Object call(Interpreter interpreter, List<Object> arguments) {
+        switch (arguments.size()) {
+            case 0:
+                return call0(interpreter);
+            case 1:
+                return call1(interpreter, arguments.get(0));
+            case 2:
+                return call2(interpreter, arguments.get(0), arguments.get(1));
+            case 3:
+                return call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+            default:
+                return callN(interpreter, arguments.toArray());
+        }
+    }
 }
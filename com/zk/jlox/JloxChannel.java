@@ -0,0 +1,73 @@
+package com.zk.jlox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * channel(capacity) 返回的有界通道
+ * 队列满了 send 会阻塞 队列空了 receive 会阻塞 容量为 0 时 send 要等到有人 receive
+ * 设置了 --timeout 时最多阻塞到截止时间 超时和执行超时一样报错
+ */
+class JloxChannel extends JloxNativeObject {
+
+    // 阻塞队列不能放 null 用一个占位对象表示 nil
+    private static final Object NIL = new Object();
+
+    private final int capacity;
+    private final BlockingQueue<Object> queue;
+
+    JloxChannel(int capacity) {
+        this.capacity = capacity;
+        if (capacity == 0) {
+            queue = new SynchronousQueue<>();
+        } else {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    void send(Object value, Interpreter interpreter) {
+        try {
+            long timeout = ExecutionBudget.remainingNanos(interpreter);
+            if (!queue.offer(value == null ? NIL : value, timeout, TimeUnit.NANOSECONDS)) {
+                throw ExecutionBudget.timedOut(null);
+            }
+        } catch (InterruptedException e) {
+            // 中断已经变成了这个错误 和 ExecutionBudget 的取消一样不再保留中断标记
+            throw new RuntimeError(null, "Interrupted while sending to channel.");
+        }
+    }
+
+    Object receive(Interpreter interpreter) {
+        try {
+            Object value = queue.poll(ExecutionBudget.remainingNanos(interpreter), TimeUnit.NANOSECONDS);
+            if (value == null) {
+                throw ExecutionBudget.timedOut(null);
+            }
+            return value == NIL ? null : value;
+        } catch (InterruptedException e) {
+            // 中断已经变成了这个错误 和 ExecutionBudget 的取消一样不再保留中断标记
+            throw new RuntimeError(null, "Interrupted while receiving from channel.");
+        }
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "send":
+                return new NativeFunction("send", 1, (interpreter, a, b, c) -> {
+                    send(a, interpreter);
+                    return null;
+                });
+            case "receive":
+                return new NativeFunction("receive", 0, (interpreter, a, b, c) -> receive(interpreter));
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<channel " + capacity + ">";
+    }
+}
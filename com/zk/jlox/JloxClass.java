@@ -1,13 +1,14 @@
 package com.zk.jlox;
 
-import java.util.List;
+import java.io.Serializable;
 import java.util.Map;
 
-class JloxClass implements JloxCallable {
+class JloxClass implements JloxCallable, Serializable {
 
     final String name;
-    final JloxClass superClass;
-    private final Map<String, JloxFunction> methods;
+    // 热重载时会被替换 见 redefine
+    volatile JloxClass superClass;
+    private volatile Map<String, JloxFunction> methods;
 
     public JloxClass(String name, JloxClass superClass, Map<String, JloxFunction> methods) {
         this.name = name;
@@ -25,17 +26,69 @@ class JloxClass implements JloxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call0(Interpreter interpreter) {
+        return instantiate(interpreter, 0, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return instantiate(interpreter, 1, a, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return instantiate(interpreter, 2, a, b, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return instantiate(interpreter, 3, a, b, c, null);
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, Object[] arguments) {
+        return instantiate(interpreter, -1, null, null, null, arguments);
+    }
+
+    private JloxInstance instantiate(Interpreter interpreter, int count, Object a, Object b, Object c,
+                                     Object[] arguments) {
+        JfrEvents.Instantiation event = new JfrEvents.Instantiation();
+        event.begin();
         JloxInstance instance = new JloxInstance(this);
         // 找一下当前类有没有定义初始化方法
         JloxFunction initializer = findMethod("init");
         if (initializer != null) {
-            // 如果有初始化方法 实例化的时候要调一下
-            initializer.bind(instance).call(interpreter, arguments);
+            // 如果有初始化方法 实例化的时候要调一下 参数原样转给初始化方法 count 为 -1 时参数在数组里
+            JloxFunction bound = initializer.bind(instance);
+            switch (count) {
+                case 0: bound.call0(interpreter); break;
+                case 1: bound.call1(interpreter, a); break;
+                case 2: bound.call2(interpreter, a, b); break;
+                case 3: bound.call3(interpreter, a, b, c); break;
+                default: bound.callN(interpreter, arguments);
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = name;
+            event.commit();
         }
         return instance;
     }
 
+    /**
+     * 热重载 换上新声明的方法和父类 类对象本身不变 已有的实例和子类下次查找方法时就会用到新的
+     */
+    void redefine(JloxClass other) {
+        for (JloxClass ancestor = other.superClass; ancestor != null; ancestor = ancestor.superClass) {
+            if (ancestor == this) {
+                throw new RuntimeError(null, "A class can't inherit from itself.");
+            }
+        }
+        this.superClass = other.superClass;
+        this.methods = other.methods;
+    }
+
     @Override
     public String toString() {
         if (this.superClass != null) {
@@ -45,11 +98,16 @@ class JloxClass implements JloxCallable {
     }
 
     public JloxFunction findMethod(String lexeme) {
-        if (methods.containsKey(lexeme)) {
-            return methods.get(lexeme);
+        // 只读一次 methods 热重载同时替换时 也不会一半读旧的一半读新的
+        JloxFunction method = methods.get(lexeme);
+        if (method != null) {
+            return method;
         }
         if (this.superClass != null) {
             // 当前类找不到的方法 去父类找
+            if (Metrics.ENABLED) {
+                Metrics.SUPERCLASS_HOPS.increment();
+            }
             return this.superClass.findMethod(lexeme);
         }
         return null;
@@ -1,17 +1,23 @@
 package com.zk.jlox;
 
-import java.util.List;
+import java.io.Serializable;
 
-class JloxFunction implements JloxCallable {
+class JloxFunction implements JloxCallable, Serializable {
 
     private final Stmt.Function declaration;
+    // 编译好的函数体 见 Compiler
+    private final StmtNode.Sequence body;
     private final Environment closure;
     private final boolean isInitializer;
+    // Resolver 证明是纯函数时 缓存调用结果 否则是 null 缓存不写进快照 从快照读回来的函数不缓存
+    private final transient MemoCache memo;
 
-    JloxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    JloxFunction(Stmt.Function declaration, StmtNode.Sequence body, Environment closure, boolean isInitializer) {
         this.declaration = declaration;
+        this.body = body;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.memo = declaration.memoize ? new MemoCache() : null;
     }
 
     @Override
@@ -20,32 +26,156 @@ class JloxFunction implements JloxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        // 每个函数调用都要创建自己的 env
+    public Object call0(Interpreter interpreter) {
+        if (memo != null) {
+            return memoized(interpreter, new Object[0]);
+        }
+        return execute(interpreter, new Environment(closure));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (memo != null) {
+            return memoized(interpreter, new Object[] {a});
+        }
+        Environment environment = new Environment(closure);
+        environment.define(declaration.params.get(0).lexeme, a);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (memo != null) {
+            return memoized(interpreter, new Object[] {a, b});
+        }
+        Environment environment = new Environment(closure);
+        environment.define(declaration.params.get(0).lexeme, a);
+        environment.define(declaration.params.get(1).lexeme, b);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (memo != null) {
+            return memoized(interpreter, new Object[] {a, b, c});
+        }
+        Environment environment = new Environment(closure);
+        environment.define(declaration.params.get(0).lexeme, a);
+        environment.define(declaration.params.get(1).lexeme, b);
+        environment.define(declaration.params.get(2).lexeme, c);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, Object[] arguments) {
+        if (memo != null) {
+            return memoized(interpreter, arguments.clone());
+        }
+        return executeWith(interpreter, arguments);
+    }
+
+    private Object memoized(Interpreter interpreter, Object[] arguments) {
+        MemoCache.Key key = new MemoCache.Key(arguments);
+        Object cached = memo.get(key);
+        if (cached != MemoCache.MISSING) {
+            return cached;
+        }
+        // 出错时不缓存 下次同样的参数还会再执行一次
+        Object result = executeWith(interpreter, arguments);
+        memo.put(key, result);
+        return result;
+    }
+
+    private Object executeWith(Interpreter interpreter, Object[] arguments) {
+        return execute(interpreter, scope(arguments));
+    }
+
+    /**
+     * 调用时的作用域 参数按顺序定义在里面
+     */
+    Environment scope(Object[] arguments) {
         Environment environment = new Environment(closure);
-        // 先将函数的入参注入到当前作用域中
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(declaration.params.get(i).lexeme, arguments[i]);
+        }
+        return environment;
+    }
+
+    /**
+     * 每个函数调用都要创建自己的 env 入参已经由 callX 注入到 environment 中
+     *
+     * 节点树的调用是 Java 的递归调用 加上这次调用 这个线程上的 Java 栈帧会超过 Interpreter.MAX_FRAMES 时
+     * 改成在 FrameMachine 上执行 从这里开始更深的调用都是堆上的栈帧 不再占用 Java 栈
+     */
+    private Object execute(Interpreter interpreter, Environment environment) {
+        int frames = body.frames;
+        if (interpreter.frames + frames > Interpreter.MAX_FRAMES) {
+            return FrameMachine.run(interpreter, this, environment);
         }
-        // 解释器执行函数代码块
-        // 其中会操作 env 的替换与恢复
+        JfrEvents.FunctionCall event = enter(interpreter);
+        interpreter.frames += frames;
+        // 在函数自己的作用域里执行编译好的函数体 执行了 return 时返回的是返回值
+        Object result;
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (ReturnValue value) {
-            // 把返回值以异常的形式抛出
-            if (isInitializer) {
-                // 如果当前方法是实例的初始化方法 只能返回 this
-                return closure.getAt(0, "this");
-            }
-            return value.value;
+            result = body.execute(interpreter, environment);
+        } finally {
+            interpreter.frames -= frames;
+            leave(interpreter, event);
+        }
+        return result(result);
+    }
+
+    JfrEvents.FunctionCall enter(Interpreter interpreter) {
+        if (Metrics.ENABLED) {
+            Metrics.CALLS.increment();
+        }
+        // 采样分析时 把当前函数记到影子调用栈上
+        if (interpreter.profiler != null) {
+            interpreter.profiler.currentStack().push(declaration);
         }
+        JfrEvents.FunctionCall event = new JfrEvents.FunctionCall();
+        event.begin();
+        return event;
+    }
 
-        // 走到这里说明 函数中没有 return 语句
+    void leave(Interpreter interpreter, JfrEvents.FunctionCall event) {
+        if (interpreter.profiler != null) {
+            interpreter.profiler.currentStack().pop();
+        }
+        // 只有开启录制并且超过阈值时才会真正提交
+        event.end();
+        if (event.shouldCommit()) {
+            event.name = declaration.name.lexeme;
+            event.line = declaration.name.line;
+            event.commit();
+        }
+    }
+
+    /**
+     * 函数体执行完之后的返回值 value 是 return 的值 没有执行 return 时是 StmtNode.NORMAL
+     */
+    Object result(Object value) {
         if (isInitializer) {
-            // 如果当前函数 是某个类的初始化方法 返回 this
+            // 如果当前方法是实例的初始化方法 只能返回 this
             return closure.getAt(0, "this");
         }
-        return null;
+        // 函数中没有执行 return 语句时返回 nil
+        return value == StmtNode.NORMAL ? null : value;
+    }
+
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
+    MemoCache memo() {
+        return memo;
+    }
+
+    /**
+     * 缓存的命中统计 没有缓存时返回 null
+     */
+    JloxMap memoStats() {
+        return memo == null ? null : memo.stats();
     }
 
     @Override
@@ -54,9 +184,12 @@ class JloxFunction implements JloxCallable {
     }
 
     public JloxFunction bind(JloxInstance jloxInstance) {
+        if (Metrics.ENABLED) {
+            Metrics.BINDS.increment();
+        }
         Environment environment = new Environment(closure);
         environment.define("this", jloxInstance);
-        return new JloxFunction(declaration, environment, isInitializer);
+        return new JloxFunction(declaration, body, environment, isInitializer);
     }
 
 }
@@ -1,15 +1,20 @@
 package com.zk.jlox;
 
-import java.util.HashMap;
+import java.io.Serializable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-class JloxInstance {
+class JloxInstance implements Serializable {
 
     private JloxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // 实例可能被多个任务同时读写 值是 nil 时存的是 Environment 的占位对象
+    private final Map<String, Object> fields = new ConcurrentHashMap<>();
 
     public JloxInstance(JloxClass jloxClass) {
         this.klass = jloxClass;
+        if (Metrics.ENABLED) {
+            Metrics.INSTANCES.increment();
+        }
     }
 
     @Override
@@ -18,8 +23,12 @@ class JloxInstance {
     }
 
     public Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        if (Metrics.ENABLED) {
+            Metrics.PROPERTY_LOOKUPS.increment();
+        }
+        Object value = fields.get(name.lexeme);
+        if (value != null) {
+            return Environment.unmask(value);
         }
         JloxFunction method = klass.findMethod(name.lexeme);
         if (method != null) {
@@ -29,7 +38,8 @@ class JloxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme +"'.");
     }
 
-    public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    public boolean set(Token name, Object value) {
+        // 返回是否新增了字段 用来统计内存
+        return fields.put(name.lexeme, Environment.mask(value)) == null;
     }
 }
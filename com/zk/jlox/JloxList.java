@@ -0,0 +1,342 @@
+package com.zk.jlox;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 内置的列表类型 list() 或 [a, b, c] 创建 支持 list[i] 和 list[i] = value
+ * 方法: get set push pop len addAll slice indexOf reverse sort sum join
+ *
+ * 元素全是数字时用 double[] 存储 不需要给每个元素装箱
+ * 第一次放入非数字的元素时 整体转换成 Object[] 之后不再转回来
+ *
+ * 会分配数组的操作都带着 Interpreter 分配之前先记到它的执行预算上 见 ExecutionBudget
+ * interpreter 为 null 的调用方已经自己记过账(例如长度确定的结果列表)
+ */
+class JloxList extends JloxNativeObject implements Serializable {
+
+    private static final double[] EMPTY = new double[0];
+
+    // numbers 和 objects 同一时刻只有一个不为 null
+    private double[] numbers;
+    private Object[] objects;
+    private int size;
+
+    JloxList() {
+        this.numbers = EMPTY;
+    }
+
+    JloxList(List<Object> elements) {
+        this.numbers = new double[elements.size()];
+        for (Object element : elements) {
+            add(element, null, null);
+        }
+    }
+
+    Object get(int index) {
+        if (numbers != null) {
+            return numbers[index];
+        }
+        return objects[index];
+    }
+
+    void set(int index, Object value, Interpreter interpreter, Token token) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double)value;
+                return;
+            }
+            toObjects(interpreter, token);
+        }
+        objects[index] = value;
+    }
+
+    void add(Object value, Interpreter interpreter, Token token) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, grow(size, size + 1, interpreter, token));
+                }
+                numbers[size++] = (double)value;
+                return;
+            }
+            toObjects(interpreter, token);
+        }
+        if (size == objects.length) {
+            objects = Arrays.copyOf(objects, grow(size, size + 1, interpreter, token));
+        }
+        objects[size++] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object index, Token bracket) {
+        return get(index(index, bracket));
+    }
+
+    void set(Object index, Token bracket, Object value, Interpreter interpreter) {
+        set(index(index, bracket), value, interpreter, bracket);
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "get":
+                return new NativeFunction("get", 1, (interpreter, a, b, c) ->
+                    get(index(a, null)));
+            case "set":
+                return new NativeFunction("set", 2, (interpreter, a, b, c) -> {
+                    set(index(a, null), b, interpreter, null);
+                    return b;
+                });
+            case "push":
+                return new NativeFunction("push", 1, (interpreter, a, b, c) -> {
+                    add(a, interpreter, null);
+                    return null;
+                });
+            case "pop":
+                return new NativeFunction("pop", 0, (interpreter, a, b, c) -> pop());
+            case "len":
+                return new NativeFunction("len", 0, (interpreter, a, b, c) -> (double)size);
+            case "addAll":
+                return new NativeFunction("addAll", 1, (interpreter, a, b, c) -> {
+                    addAll(checkList(a), interpreter);
+                    return null;
+                });
+            case "slice":
+                return new NativeFunction("slice", 2, (interpreter, a, b, c) ->
+                    slice(bound(a), bound(b), interpreter));
+            case "indexOf":
+                return new NativeFunction("indexOf", 1, (interpreter, a, b, c) ->
+                    (double)indexOf(a));
+            case "reverse":
+                return new NativeFunction("reverse", 0, (interpreter, a, b, c) -> {
+                    reverse();
+                    return null;
+                });
+            case "sort":
+                return new NativeFunction("sort", 0, (interpreter, a, b, c) -> {
+                    sort();
+                    return null;
+                });
+            case "sum":
+                return new NativeFunction("sum", 0, (interpreter, a, b, c) -> sum());
+            case "join":
+                return new NativeFunction("join", 1, (interpreter, a, b, c) -> {
+                    if (!JloxRope.isString(a)) {
+                        throw new RuntimeError(null, "Separator must be a string.");
+                    }
+                    return join(a.toString(), interpreter);
+                });
+        }
+        throw undefined(name);
+    }
+
+    private Object pop() {
+        if (size == 0) {
+            throw new RuntimeError(null, "Can't pop from an empty list.");
+        }
+        Object last = get(size - 1);
+        size--;
+        if (objects != null) {
+            // 释放引用 避免弹出的对象一直被数组持有
+            objects[size] = null;
+        }
+        return last;
+    }
+
+    private void addAll(JloxList other, Interpreter interpreter) {
+        if (numbers != null && other.numbers != null) {
+            // 两边都是数字 直接整段复制
+            if (size + other.size > numbers.length) {
+                numbers = Arrays.copyOf(numbers, grow(size, size + other.size, interpreter, null));
+            }
+            System.arraycopy(other.numbers, 0, numbers, size, other.size);
+            size += other.size;
+            return;
+        }
+        // 先记下长度 list.addAll(list) 时不会一直追加下去
+        int count = other.size;
+        for (int i = 0; i < count; i++) {
+            add(other.get(i), interpreter, null);
+        }
+    }
+
+    private JloxList slice(int from, int to, Interpreter interpreter) {
+        if (from > to) {
+            throw new RuntimeError(null, "Slice start must not be after its end.");
+        }
+        ExecutionBudget.allocate(interpreter,
+            ExecutionBudget.LIST_BYTES + ExecutionBudget.SLOT_BYTES * (to - from), null);
+        JloxList result = new JloxList();
+        if (numbers != null) {
+            result.numbers = Arrays.copyOfRange(numbers, from, to);
+        } else {
+            result.numbers = null;
+            result.objects = Arrays.copyOfRange(objects, from, to);
+        }
+        result.size = to - from;
+        return result;
+    }
+
+    private int indexOf(Object value) {
+        if (numbers != null) {
+            if (!(value instanceof Double)) {
+                return -1;
+            }
+            // 和 isEqual 一样按 Double.equals 的语义比较
+            long bits = Double.doubleToLongBits((double)value);
+            for (int i = 0; i < size; i++) {
+                if (Double.doubleToLongBits(numbers[i]) == bits) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (Interpreter.isEqual(objects[i], value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            if (numbers != null) {
+                double temp = numbers[i];
+                numbers[i] = numbers[j];
+                numbers[j] = temp;
+            } else {
+                Object temp = objects[i];
+                objects[i] = objects[j];
+                objects[j] = temp;
+            }
+        }
+    }
+
+    private void sort() {
+        if (numbers != null) {
+            Arrays.sort(numbers, 0, size);
+            return;
+        }
+        // 通用存储里也可能全是数字(例如把 nil 换成了数字) 按元素判断 全是数字或者全是字符串才能排序
+        if (allNumbers()) {
+            double[] sorted = new double[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = (double)objects[i];
+            }
+            Arrays.sort(sorted);
+            for (int i = 0; i < size; i++) {
+                objects[i] = sorted[i];
+            }
+            return;
+        }
+        String[] strings = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (!JloxRope.isString(objects[i])) {
+                throw new RuntimeError(null, "Can only sort a list of numbers or a list of strings.");
+            }
+            strings[i] = objects[i].toString();
+        }
+        Arrays.sort(strings);
+        System.arraycopy(strings, 0, objects, 0, size);
+    }
+
+    private double sum() {
+        double total = 0;
+        if (numbers != null) {
+            for (int i = 0; i < size; i++) {
+                total += numbers[i];
+            }
+            return total;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!(objects[i] instanceof Double)) {
+                throw new RuntimeError(null, "Can only sum a list of numbers.");
+            }
+            total += (double)objects[i];
+        }
+        return total;
+    }
+
+    private boolean allNumbers() {
+        for (int i = 0; i < size; i++) {
+            if (!(objects[i] instanceof Double)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String join(String separator, Interpreter interpreter) {
+        // 结果的长度事先不知道 每追加一个元素记一次账 超出预算时最多多分配一个元素
+        ExecutionBudget.allocate(interpreter, ExecutionBudget.stringBytes(0), null);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            int length = builder.length();
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(Interpreter.stringfy(get(i)));
+            ExecutionBudget.allocate(interpreter, 2L * (builder.length() - length), null);
+        }
+        return builder.toString();
+    }
+
+    private void toObjects(Interpreter interpreter, Token token) {
+        // 数字存储转换成通用存储 只会发生一次 每个数字都要装箱
+        int length = Math.max(numbers.length, 4);
+        ExecutionBudget.allocate(interpreter,
+            ExecutionBudget.SLOT_BYTES * length + ExecutionBudget.NUMBER_BYTES * size, token);
+        Object[] boxed = new Object[length];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = numbers[i];
+        }
+        objects = boxed;
+        numbers = null;
+    }
+
+    private static int grow(int size, int needed, Interpreter interpreter, Token token) {
+        // 新数组的大小 至少放得下 needed 个元素 分配之前先记到执行预算上
+        int capacity = Math.max(size < 4 ? 8 : size + (size >> 1), needed);
+        ExecutionBudget.allocate(interpreter, ExecutionBudget.SLOT_BYTES * capacity, token);
+        return capacity;
+    }
+
+    private int index(Object value, Token bracket) {
+        // 下标必须是范围内的整数
+        if (!(value instanceof Double) || (double)value % 1 != 0) {
+            throw new RuntimeError(bracket, "List index must be an integer.");
+        }
+        double index = (double)value;
+        if (index < 0 || index >= size) {
+            throw new RuntimeError(bracket, "List index out of range.");
+        }
+        return (int)index;
+    }
+
+    private int bound(Object value) {
+        // slice 的边界可以等于长度
+        if (!(value instanceof Double) || (double)value % 1 != 0
+                || (double)value < 0 || (double)value > size) {
+            throw new RuntimeError(null, "Slice bound out of range.");
+        }
+        return (int)(double)value;
+    }
+
+    private static JloxList checkList(Object value) {
+        if (value instanceof JloxList) {
+            return (JloxList)value;
+        }
+        throw new RuntimeError(null, "Argument must be a list.");
+    }
+
+    @Override
+    public String toString() {
+        return printed("[...]", () -> "[" + join(", ", null) + "]");
+    }
+}
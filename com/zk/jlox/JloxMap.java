@@ -0,0 +1,206 @@
+package com.zk.jlox;
+
+import java.io.Serializable;
+
+/**
+ * 内置的哈希表类型 map() 创建 支持 map[key] 和 map[key] = value
+ * 方法: get set has remove len keys values
+ *
+ * 键只能是字符串 数字 布尔值 相等的判断和 Interpreter.isEqual 一致
+ * 拼接出来的 JloxRope 先转成 String 再作为键
+ *
+ * 开放寻址 线性探测 容量是 2 的幂 装载超过 3/4 时扩容
+ * 删除时把后面同一探测序列上的元素往前挪 不留墓碑
+ * keys() values() 按槽位顺序返回 不是插入顺序
+ *
+ * 扩容和 keys() values() 分配之前先记到 Interpreter 的执行预算上 见 ExecutionBudget
+ */
+class JloxMap extends JloxNativeObject implements Serializable {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Object[] keys;
+    private Object[] values;
+    private int size;
+
+    JloxMap() {
+        this.keys = new Object[INITIAL_CAPACITY];
+        this.values = new Object[INITIAL_CAPACITY];
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key, Token token) {
+        int slot = find(checkKey(key, token));
+        return slot < 0 ? null : values[slot];
+    }
+
+    void set(Object key, Token token, Object value, Interpreter interpreter) {
+        put(checkKey(key, token), value, interpreter, token);
+    }
+
+    @Override
+    Object get(Token name) {
+        switch (name.lexeme) {
+            case "get":
+                return new NativeFunction("get", 1, (interpreter, a, b, c) -> get(a, null));
+            case "set":
+                return new NativeFunction("set", 2, (interpreter, a, b, c) -> {
+                    set(a, null, b, interpreter);
+                    return b;
+                });
+            case "has":
+                return new NativeFunction("has", 1, (interpreter, a, b, c) ->
+                    find(checkKey(a, null)) >= 0);
+            case "remove":
+                return new NativeFunction("remove", 1, (interpreter, a, b, c) ->
+                    remove(checkKey(a, null)));
+            case "len":
+                return new NativeFunction("len", 0, (interpreter, a, b, c) -> (double)size);
+            case "keys":
+                return new NativeFunction("keys", 0, (interpreter, a, b, c) -> collect(keys, interpreter));
+            case "values":
+                return new NativeFunction("values", 0, (interpreter, a, b, c) -> collect(values, interpreter));
+        }
+        throw undefined(name);
+    }
+
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            Object current = keys[slot];
+            if (current == null) {
+                return -1;
+            }
+            if (matches(current, key)) {
+                return slot;
+            }
+        }
+    }
+
+    private void put(Object key, Object value, Interpreter interpreter, Token token) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (matches(keys[slot], key)) {
+                values[slot] = value;
+                return;
+            }
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            // 放进去之后就要扩容 先记账 超出预算时这个键不会被放进去
+            ExecutionBudget.allocate(interpreter, 2 * ExecutionBudget.SLOT_BYTES * keys.length * 2, token);
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 4 > keys.length * 3) {
+            resize();
+        }
+    }
+
+    private Object remove(Object key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        Object removed = values[slot];
+        int mask = keys.length - 1;
+        // 往后找同一段连续的元素 如果它的理想位置不在 (hole, next] 之间 就挪到空出来的位置
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private JloxList collect(Object[] slots, Interpreter interpreter) {
+        ExecutionBudget.allocate(interpreter,
+            ExecutionBudget.LIST_BYTES + ExecutionBudget.SLOT_BYTES * size, null);
+        JloxList list = new JloxList();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                list.add(slots[i], null, null);
+            }
+        }
+        return list;
+    }
+
+    private static int hash(Object key) {
+        int h;
+        if (key instanceof Double) {
+            // 和 Double.equals 一致 按位比较 所以 0 和 -0 是不同的键
+            long bits = Double.doubleToLongBits((double)key);
+            h = (int)(bits ^ (bits >>> 32));
+        } else {
+            // String 的 hashCode 会缓存在对象里
+            h = key.hashCode();
+        }
+        // 整数值的 double 低位都是 0 乘一个奇数打散之后 再把高 16 位折到低位
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(Object current, Object key) {
+        if (current == key) {
+            return true;
+        }
+        if (key instanceof String) {
+            return current instanceof String && key.equals(current);
+        }
+        return key.equals(current);
+    }
+
+    private static Object checkKey(Object key, Token token) {
+        if (key instanceof JloxRope) {
+            return key.toString();
+        }
+        if (key instanceof String || key instanceof Double || key instanceof Boolean) {
+            return key;
+        }
+        throw new RuntimeError(token, "Map key must be a string, number or boolean.");
+    }
+
+    @Override
+    public String toString() {
+        return printed("{...}", () -> {
+            StringBuilder builder = new StringBuilder("{");
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    if (builder.length() > 1) {
+                        builder.append(", ");
+                    }
+                    builder.append(Interpreter.stringfy(keys[i])).append(": ").append(Interpreter.stringfy(values[i]));
+                }
+            }
+            return builder.append("}").toString();
+        });
+    }
+}
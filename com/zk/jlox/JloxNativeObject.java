@@ -0,0 +1,41 @@
+package com.zk.jlox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 用 Java 实现的内置对象 例如 spawn 返回的任务句柄 channel 等
+ * 和 JloxInstance 一样可以通过 . 访问方法 返回的方法已经绑定到当前对象上
+ */
+abstract class JloxNativeObject {
+
+    // 当前线程上正在转换成字符串的容器 见 printed
+    private static final ThreadLocal<Set<Object>> PRINTING = new ThreadLocal<>();
+
+    abstract Object get(Token name);
+
+    /**
+     * 列表和哈希表的 toString 容器直接或间接包含自己时 里面的那一份打印成 cycle 不再展开
+     */
+    String printed(String cycle, Supplier<String> text) {
+        Set<Object> printing = PRINTING.get();
+        if (printing == null) {
+            printing = Collections.newSetFromMap(new IdentityHashMap<>());
+            PRINTING.set(printing);
+        }
+        if (!printing.add(this)) {
+            return cycle;
+        }
+        try {
+            return text.get();
+        } finally {
+            printing.remove(this);
+        }
+    }
+
+    RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+}
@@ -0,0 +1,102 @@
+package com.zk.jlox;
+
+import java.io.Serializable;
+
+/**
+ * 字符串拼接的结果 长字符串用它代替 String 避免循环拼接时反复复制
+ *
+ * 多个 JloxRope 可以共享同一个 StringBuilder 每个只看前 length 个字符
+ * 如果左边的 JloxRope 正好是 buffer 的末尾(没有其他值在它后面追加过) 拼接时直接追加到 buffer 上
+ * 所以 s = s + "..." 这样的循环是均摊 O(1) 的
+ * 打印 比较 求哈希时才拼成 String 并缓存起来
+ */
+final class JloxRope implements CharSequence, Serializable {
+
+    // 比这个短的结果直接用 String 拼接 不值得建 buffer
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private volatile String flat;
+
+    private JloxRope(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    private Object writeReplace() {
+        // 共享的 buffer 不写进快照 读回来就是普通的 String
+        return toString();
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof JloxRope;
+    }
+
+    static Object concat(Object left, Object right) {
+        String tail = right.toString();
+        if (left instanceof JloxRope) {
+            JloxRope rope = (JloxRope) left;
+            synchronized (rope.buffer) {
+                if (rope.buffer.length() == rope.length) {
+                    // 左边就是 buffer 的末尾 直接追加
+                    rope.buffer.append(tail);
+                    return new JloxRope(rope.buffer, rope.buffer.length());
+                }
+            }
+        }
+        String head = left.toString();
+        int length = head.length() + tail.length();
+        if (length < MIN_LENGTH) {
+            return head + tail;
+        }
+        StringBuilder buffer = new StringBuilder(Math.max(16, length * 2));
+        buffer.append(head).append(tail);
+        return new JloxRope(buffer, length);
+    }
+
+    @Override
+    public String toString() {
+        String result = flat;
+        if (result == null) {
+            synchronized (buffer) {
+                result = buffer.substring(0, length);
+            }
+            flat = result;
+        }
+        return result;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        // 只和 JloxRope 比较内容 和 String 的比较由 Interpreter.isEqual 统一处理
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof JloxRope)) {
+            return false;
+        }
+        JloxRope rope = (JloxRope) other;
+        return length == rope.length && toString().equals(rope.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,83 @@
+package com.zk.jlox;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * spawn(fn) 返回的任务句柄
+ * fn 在一个新的线程上执行 有虚拟线程(JDK 21+)时用虚拟线程 否则退回到守护线程
+ * 退回到守护线程时每个任务占用一个系统线程 同时存活的任务数受系统的线程数限制 见 README
+ * 深度递归用的是堆上的栈帧 见 FrameMachine 所以线程本身的栈大小不影响递归深度
+ * 每个任务有自己的 Interpreter 只和创建它的 Interpreter 共享全局变量
+ */
+class JloxTask extends JloxNativeObject {
+
+    private static final ThreadFactory THREADS = threadFactory();
+
+    private final Thread thread;
+    private volatile Object result;
+    // 任务里抛出的任何异常 包括 OutOfMemoryError 这样的 Error 没有出错时是 null
+    private volatile Throwable error;
+
+    JloxTask(Interpreter interpreter, JloxCallable function) {
+        Interpreter task = interpreter.fork();
+        thread = THREADS.newThread(() -> {
+            try {
+                result = function.call0(task);
+            } catch (Throwable e) {
+                // 错误先存起来 join 的时候再抛给调用方 不让线程带着未处理的异常结束
+                error = e;
+            }
+        });
+        thread.start();
+    }
+
+    Object join(Interpreter interpreter) {
+        try {
+            // 设置了 --timeout 时最多等到截止时间 超时后 remainingNanos 抛出错误
+            while (thread.isAlive()) {
+                TimeUnit.NANOSECONDS.timedJoin(thread, ExecutionBudget.remainingNanos(interpreter));
+            }
+        } catch (InterruptedException e) {
+            // 中断已经变成了这个错误 和 ExecutionBudget 的取消一样不再保留中断标记
+            throw new RuntimeError(null, "Interrupted while joining task.");
+        }
+        if (error instanceof RuntimeError) {
+            throw new RuntimeError(((RuntimeError) error).token, "Spawned task failed: " + error.getMessage());
+        }
+        if (error != null) {
+            // 不是 Lox 的运行时错误 没有位置 由 join 调用处的括号补上
+            throw new RuntimeError(null, "Spawned task failed: " + error);
+        }
+        return result;
+    }
+
+    @Override
+    Object get(Token name) {
+        if (name.lexeme.equals("join")) {
+            return new NativeFunction("join", 0, (interpreter, a, b, c) -> join(interpreter));
+        }
+        throw undefined(name);
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+
+    private static ThreadFactory threadFactory() {
+        try {
+            // Thread.ofVirtual().factory() 只在 JDK 21 以后才有 这里用反射 老版本也能编译运行
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.zk.jlox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 语言服务器用的最小 JSON 读写
+ * 对象读成 LinkedHashMap 数组读成 ArrayList 整数读成 Long 其他数字读成 Double
+ */
+final class Json {
+
+    private final String text;
+    private int current = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.current != text.length()) {
+            throw json.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    static String write(Object value) {
+        StringBuilder builder = new StringBuilder();
+        write(value, builder);
+        return builder.toString();
+    }
+
+    private static void write(Object value, StringBuilder builder) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            writeString((String) value, builder);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value);
+        } else if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                writeString(entry.getKey().toString(), builder);
+                builder.append(':');
+                write(entry.getValue(), builder);
+            }
+            builder.append('}');
+        } else if (value instanceof List) {
+            builder.append('[');
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                write(element, builder);
+            }
+            builder.append(']');
+        } else {
+            throw new IllegalArgumentException("Can't write " + value.getClass() + " as JSON");
+        }
+    }
+
+    private static void writeString(String value, StringBuilder builder) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (current >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = text.charAt(current);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default: return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        current++;
+        skipWhitespace();
+        if (peek() == '}') {
+            current++;
+            return object;
+        }
+        do {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expect string key");
+            }
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            object.put(key, value());
+            skipWhitespace();
+        } while (consume(','));
+        expect('}');
+        return object;
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        current++;
+        skipWhitespace();
+        if (peek() == ']') {
+            current++;
+            return array;
+        }
+        do {
+            array.add(value());
+            skipWhitespace();
+        } while (consume(','));
+        expect(']');
+        return array;
+    }
+
+    private String string() {
+        current++;
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            if (current >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(current++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (current >= text.length()) {
+                throw error("Unterminated escape");
+            }
+            char escape = text.charAt(current++);
+            switch (escape) {
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (current + 4 > text.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    builder.append((char) Integer.parseInt(text.substring(current, current + 4), 16));
+                    current += 4;
+                    break;
+                default:
+                    // \" \\ \/
+                    builder.append(escape);
+            }
+        }
+    }
+
+    private Object number() {
+        int start = current;
+        boolean integral = true;
+        while (current < text.length()) {
+            char c = text.charAt(current);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            current++;
+        }
+        if (start == current) {
+            throw error("Unexpected character");
+        }
+        String number = text.substring(start, current);
+        try {
+            return integral ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Bad number");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, current)) {
+            throw error("Unexpected character");
+        }
+        current += word.length();
+        return value;
+    }
+
+    private void skipWhitespace() {
+        while (current < text.length() && Character.isWhitespace(text.charAt(current))) {
+            current++;
+        }
+    }
+
+    private char peek() {
+        return current < text.length() ? text.charAt(current) : '\0';
+    }
+
+    private boolean consume(char c) {
+        if (peek() == c) {
+            current++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("Expect '" + c + "'");
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + current);
+    }
+}
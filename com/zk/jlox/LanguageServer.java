@@ -0,0 +1,269 @@
+package com.zk.jlox;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * jlox --lsp 通过 stdin stdout 提供的语言服务器
+ *
+ * 支持 initialize shutdown exit 和文档的 didOpen didChange didClose
+ * 文档按增量方式同步 每次修改之后发布 Scanner Parser Resolver 报告的错误
+ * 增量分析的细节见 LspDocument
+ *
+ * 一次修改要分析的内容太多时 LspDocument 把它推迟 这里等 DEFER_MILLIS 没有新的修改再分析并发布
+ * 推迟的分析在后台线程上执行 和处理请求的线程用 this 上的锁互斥
+ */
+final class LanguageServer {
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final Map<String, LspDocument> documents = new HashMap<>();
+    private boolean shutdown = false;
+
+    private static final long DEFER_MILLIS = 300;
+    private final ScheduledExecutorService deferred = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jlox-lsp-analysis");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 每个文档还没执行的推迟分析 新的修改到来时取消 重新计时
+    private final Map<String, ScheduledFuture<?>> scheduled = new HashMap<>();
+
+    LanguageServer(InputStream in, OutputStream out) {
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+    }
+
+    /**
+     * 一直处理请求 直到收到 exit 或者输入结束 返回进程的退出码
+     */
+    int serve() throws IOException {
+        for (;;) {
+            String body = readMessage();
+            if (body == null) {
+                return shutdown ? 0 : 1;
+            }
+            Map<?, ?> message;
+            try {
+                message = (Map<?, ?>) Json.parse(body);
+            } catch (RuntimeException error) {
+                sendError(null, -32700, "Parse error: " + error.getMessage());
+                continue;
+            }
+            Object id = message.get("id");
+            Object method = message.get("method");
+            if ("exit".equals(method)) {
+                return shutdown ? 0 : 1;
+            }
+            try {
+                synchronized (this) {
+                    handle(id, String.valueOf(method), (Map<?, ?>) message.get("params"));
+                }
+            } catch (RuntimeException error) {
+                // 单个请求出错不影响后面的请求
+                if (id != null) {
+                    sendError(id, -32603, error.toString());
+                }
+            }
+        }
+    }
+
+    private void handle(Object id, String method, Map<?, ?> params) throws IOException {
+        switch (method) {
+            case "initialize": {
+                Map<String, Object> sync = new LinkedHashMap<>();
+                sync.put("openClose", true);
+                // 2 表示增量同步 每次只发修改的范围
+                sync.put("change", 2);
+                Map<String, Object> capabilities = new LinkedHashMap<>();
+                capabilities.put("textDocumentSync", sync);
+                Map<String, Object> info = new LinkedHashMap<>();
+                info.put("name", "jlox");
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("capabilities", capabilities);
+                result.put("serverInfo", info);
+                sendResult(id, result);
+                return;
+            }
+            case "shutdown":
+                shutdown = true;
+                sendResult(id, null);
+                return;
+            case "textDocument/didOpen": {
+                Map<?, ?> document = (Map<?, ?>) params.get("textDocument");
+                String uri = (String) document.get("uri");
+                LspDocument opened = new LspDocument((String) document.get("text"));
+                documents.put(uri, opened);
+                publish(uri, opened);
+                return;
+            }
+            case "textDocument/didChange": {
+                String uri = (String) ((Map<?, ?>) params.get("textDocument")).get("uri");
+                LspDocument document = documents.get(uri);
+                if (document == null) {
+                    return;
+                }
+                for (Object change : (List<?>) params.get("contentChanges")) {
+                    apply(document, (Map<?, ?>) change);
+                }
+                publish(uri, document);
+                return;
+            }
+            case "textDocument/didClose": {
+                String uri = (String) ((Map<?, ?>) params.get("textDocument")).get("uri");
+                documents.remove(uri);
+                cancelDeferred(uri);
+                // 关闭之后清空这个文档的诊断信息
+                sendNotification("textDocument/publishDiagnostics", diagnostics(uri, List.of()));
+                return;
+            }
+        }
+        if (id != null) {
+            sendError(id, -32601, "Method not found: " + method);
+        }
+        // 其他通知(initialized $/cancelRequest 等)直接忽略
+    }
+
+    private static void apply(LspDocument document, Map<?, ?> change) {
+        Map<?, ?> range = (Map<?, ?>) change.get("range");
+        String text = (String) change.get("text");
+        if (range == null) {
+            document.setText(text);
+            return;
+        }
+        Map<?, ?> start = (Map<?, ?>) range.get("start");
+        Map<?, ?> end = (Map<?, ?>) range.get("end");
+        document.edit(number(start.get("line")), number(start.get("character")),
+            number(end.get("line")), number(end.get("character")), text);
+    }
+
+    private void publish(String uri, LspDocument document) throws IOException {
+        sendNotification("textDocument/publishDiagnostics", diagnostics(uri, document.diagnostics()));
+        cancelDeferred(uri);
+        if (document.hasPending()) {
+            scheduled.put(uri, deferred.schedule(() -> analyseDeferred(uri, document), DEFER_MILLIS,
+                TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private synchronized void analyseDeferred(String uri, LspDocument document) {
+        // 文档可能已经关闭 或者重新打开成了另一个对象
+        if (documents.get(uri) != document) {
+            return;
+        }
+        scheduled.remove(uri);
+        document.analysePending();
+        try {
+            publish(uri, document);
+        } catch (IOException error) {
+            // 输出已经关闭 serve 会在读到输入结束时退出
+        }
+    }
+
+    private void cancelDeferred(String uri) {
+        ScheduledFuture<?> pending = scheduled.remove(uri);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    private static Map<String, Object> diagnostics(String uri, List<Object> diagnostics) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("uri", uri);
+        params.put("diagnostics", diagnostics);
+        return params;
+    }
+
+    private static int number(Object value) {
+        return ((Number) value).intValue();
+    }
+
+    private void sendResult(Object id, Object result) throws IOException {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("result", result);
+        send(message);
+    }
+
+    private void sendError(Object id, int code, String text) throws IOException {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", text);
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("error", error);
+        send(message);
+    }
+
+    private void sendNotification(String method, Object params) throws IOException {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("method", method);
+        message.put("params", params);
+        send(message);
+    }
+
+    private synchronized void send(Map<String, Object> message) throws IOException {
+        byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        out.write(("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    private String readMessage() throws IOException {
+        // 头部是若干行 key: value 以空行结束 只关心 Content-Length
+        int length = -1;
+        for (;;) {
+            String header = readHeaderLine();
+            if (header == null) {
+                return null;
+            }
+            if (header.isEmpty()) {
+                break;
+            }
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                length = Integer.parseInt(header.substring(colon + 1).trim());
+            }
+        }
+        if (length < 0) {
+            throw new IOException("Missing Content-Length header");
+        }
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) {
+            return null;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private String readHeaderLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (;;) {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+}
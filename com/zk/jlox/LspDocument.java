@@ -0,0 +1,326 @@
+package com.zk.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 语言服务器里打开的一个文档
+ *
+ * 文档按行保存 再按顶层语句切成若干块(chunk) 每块只包含完整的行
+ * 顶层的 fun class var 互相之间只通过全局变量联系 Resolver 不会跨块报错
+ * 所以每块可以单独 Scanner + Parser + Resolver + TypeInference 结果缓存在块上
+ *
+ * 编辑时只重新切分编辑位置所在的块和前后各一块 其他块原样保留
+ * 重新切分时如果括号没有闭合 会把后面的块并进来 直到重新落在原来的块边界上
+ * 块里的诊断信息用块内的相对行号保存 前面插入删除行时不需要重新分析
+ *
+ * 块不会再往下切 函数体里的局部变量要在外层的作用域里才能解析
+ * 所以在很大的函数或者类里编辑 整个声明都要重新分析 输入一个还没闭合的 { 会把后面的整个文件并进来
+ * 一次修改要重新分析的行数超过 MAX_IMMEDIATE_LINES 时 这些块先标记为待分析 不发布诊断信息
+ * 等编辑停下来 LanguageServer 再调用 analysePending 分析
+ */
+final class LspDocument {
+
+    private static final class Diagnostic {
+        // 块内的行号 从 0 开始
+        final int line;
+        final String message;
+        // LSP 的严重程度 1 错误 2 警告
+        final int severity;
+
+        Diagnostic(int line, String message, int severity) {
+            this.line = line;
+            this.message = message;
+            this.severity = severity;
+        }
+    }
+
+    // 一次修改最多立即重新分析多少行
+    static final int MAX_IMMEDIATE_LINES = 500;
+
+    private static final class Chunk {
+        final String text;
+        final int lineCount;
+        // 还没有分析时是 null 见 analysePending
+        final List<Diagnostic> diagnostics;
+
+        Chunk(String text, int lineCount, List<Diagnostic> diagnostics) {
+            this.text = text;
+            this.lineCount = lineCount;
+            this.diagnostics = diagnostics;
+        }
+    }
+
+    private final List<String> lines = new ArrayList<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    // 最近一次修改实际重新分析了多少块 其他块都复用了缓存
+    int analysed;
+
+    LspDocument(String text) {
+        setText(text);
+    }
+
+    void setText(String text) {
+        // 整篇替换 内容没变的块仍然可以复用
+        Map<String, Chunk> reusable = new HashMap<>();
+        for (Chunk chunk : chunks) {
+            reusable.put(chunk.text, chunk);
+        }
+        lines.clear();
+        lines.addAll(Arrays.asList(text.split("\n", -1)));
+        chunks.clear();
+        analysed = 0;
+        for (int start = 0; start < lines.size(); ) {
+            int end = nextBoundary(start);
+            chunks.add(chunk(start, end, reusable, false));
+            start = end;
+        }
+    }
+
+    void edit(int startLine, int startCharacter, int endLine, int endCharacter, String text) {
+        startLine = Math.min(startLine, lines.size() - 1);
+        endLine = Math.min(endLine, lines.size() - 1);
+
+        // 找到编辑范围所在的块 再往前后各多取一块
+        // 前一块: 编辑可能让下一行以 else 开头 改变它的结尾
+        // 后一块: 删掉分号或者右括号之后 可能要和后面合并
+        int first = 0;
+        int regionStart = 0;
+        while (first < chunks.size() - 1 && regionStart + chunks.get(first).lineCount <= startLine) {
+            regionStart += chunks.get(first).lineCount;
+            first++;
+        }
+        int last = first;
+        int regionEnd = regionStart + chunks.get(first).lineCount;
+        while (last < chunks.size() - 1 && regionEnd <= endLine) {
+            last++;
+            regionEnd += chunks.get(last).lineCount;
+        }
+        if (first > 0) {
+            first--;
+            regionStart -= chunks.get(first).lineCount;
+        }
+        if (last < chunks.size() - 1) {
+            last++;
+            regionEnd += chunks.get(last).lineCount;
+        }
+
+        // 替换文本
+        String head = lines.get(startLine);
+        String tail = lines.get(endLine);
+        String replaced = head.substring(0, Math.min(startCharacter, head.length()))
+            + text + tail.substring(Math.min(endCharacter, tail.length()));
+        List<String> newLines = Arrays.asList(replaced.split("\n", -1));
+        lines.subList(startLine, endLine + 1).clear();
+        lines.addAll(startLine, newLines);
+        regionEnd += newLines.size() - (endLine - startLine + 1);
+
+        // 重新切分 region 如果切分越过了 region 的结尾 就把后面的块也并进来
+        Map<String, Chunk> reusable = new HashMap<>();
+        for (int i = first; i <= last; i++) {
+            reusable.put(chunks.get(i).text, chunks.get(i));
+        }
+        int next = last + 1;
+        List<Integer> boundaries = new ArrayList<>();
+        boundaries.add(regionStart);
+        for (int start = regionStart; start < regionEnd; ) {
+            int end = nextBoundary(start);
+            while (end > regionEnd) {
+                Chunk absorbed = chunks.get(next++);
+                reusable.put(absorbed.text, absorbed);
+                regionEnd += absorbed.lineCount;
+            }
+            boundaries.add(end);
+            start = end;
+        }
+
+        // 不能复用的块加起来太长时 推迟到编辑停下来再分析
+        int changed = 0;
+        for (int i = 1; i < boundaries.size(); i++) {
+            int start = boundaries.get(i - 1);
+            int end = boundaries.get(i);
+            if (!reusable.containsKey(String.join("\n", lines.subList(start, end)))) {
+                changed += end - start;
+            }
+        }
+        boolean defer = changed > MAX_IMMEDIATE_LINES;
+        List<Chunk> replacement = new ArrayList<>();
+        analysed = 0;
+        for (int i = 1; i < boundaries.size(); i++) {
+            replacement.add(chunk(boundaries.get(i - 1), boundaries.get(i), reusable, defer));
+        }
+        chunks.subList(first, next).clear();
+        chunks.addAll(first, replacement);
+    }
+
+    boolean hasPending() {
+        for (Chunk chunk : chunks) {
+            if (chunk.diagnostics == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 分析之前推迟的块
+     */
+    void analysePending() {
+        analysed = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk.diagnostics == null) {
+                analysed++;
+                chunks.set(i, new Chunk(chunk.text, chunk.lineCount, analyse(chunk.text)));
+            }
+        }
+    }
+
+    List<Object> diagnostics() {
+        // 转换成 LSP 的 Diagnostic 对象 行号加上块的起始行
+        List<Object> result = new ArrayList<>();
+        int start = 0;
+        for (Chunk chunk : chunks) {
+            // 还没分析的块暂时没有诊断信息
+            List<Diagnostic> diagnostics = chunk.diagnostics == null ? List.of() : chunk.diagnostics;
+            for (Diagnostic diagnostic : diagnostics) {
+                int line = start + Math.min(diagnostic.line, chunk.lineCount - 1);
+                Map<String, Object> object = new LinkedHashMap<>();
+                object.put("range", range(line, 0, line, lines.get(line).length()));
+                object.put("severity", diagnostic.severity);
+                object.put("source", "jlox");
+                object.put("message", diagnostic.message);
+                result.add(object);
+            }
+            start += chunk.lineCount;
+        }
+        return result;
+    }
+
+    private Chunk chunk(int start, int end, Map<String, Chunk> reusable, boolean defer) {
+        String text = String.join("\n", lines.subList(start, end));
+        Chunk cached = reusable.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        if (defer) {
+            return new Chunk(text, end - start, null);
+        }
+        analysed++;
+        return new Chunk(text, end - start, analyse(text));
+    }
+
+    private static List<Diagnostic> analyse(String text) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        Jlox.reporter.set(new ErrorReporter() {
+            @Override
+            public void report(int line, String where, String message) {
+                diagnostics.add(new Diagnostic(line - 1, "Error" + where + ": " + message, 1));
+            }
+
+            @Override
+            public void warning(int line, String where, String message) {
+                diagnostics.add(new Diagnostic(line - 1, "Warning" + where + ": " + message, 2));
+            }
+        });
+        try {
+            List<Token> tokens = new Scanner(text).scanTokens();
+            List<Stmt> statements = new Parser(tokens).parse();
+            // 有语法错误时语法树不完整 不再做语义分析
+            if (diagnostics.isEmpty()) {
+                new Resolver().resolve(statements);
+            }
+            if (diagnostics.isEmpty()) {
+                new TypeInference().infer(statements);
+            }
+        } catch (RuntimeException error) {
+            // 前端遇到意料之外的情况 不能让整个服务器退出
+            diagnostics.add(new Diagnostic(0, "Internal error: " + error, 1));
+        } finally {
+            Jlox.reporter.remove();
+        }
+        return diagnostics;
+    }
+
+    private int nextBoundary(int from) {
+        // 从 from 行开始 找到一条完整顶层语句的结尾 返回下一块的起始行
+        // 条件: 不在字符串里 括号都闭合了 行尾是 ; 或者 } 并且下一行不是 else
+        int depth = 0;
+        boolean inString = false;
+        boolean content = false;
+        char last = 0;
+        for (int i = from; i < lines.size(); i++) {
+            String line = lines.get(i);
+            for (int k = 0; k < line.length(); k++) {
+                char c = line.charAt(k);
+                if (inString) {
+                    if (c == '"') {
+                        inString = false;
+                        last = c;
+                    }
+                    continue;
+                }
+                if (c == '/' && k + 1 < line.length() && line.charAt(k + 1) == '/') {
+                    break;
+                }
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                content = true;
+                last = c;
+                switch (c) {
+                    case '"':
+                        inString = true;
+                        break;
+                    case '{':
+                    case '(':
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                    case ')':
+                    case ']':
+                        // 多出来的右括号留给 Parser 报错 这里不让深度变成负数
+                        if (depth > 0) {
+                            depth--;
+                        }
+                        break;
+                }
+            }
+            if (content && !inString && depth == 0 && (last == ';' || last == '}') && !elseFollows(i + 1)) {
+                return i + 1;
+            }
+        }
+        return lines.size();
+    }
+
+    private boolean elseFollows(int from) {
+        for (int i = from; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+            return line.startsWith("else")
+                && (line.length() == 4 || !Character.isLetterOrDigit(line.charAt(4)) && line.charAt(4) != '_');
+        }
+        return false;
+    }
+
+    private static Map<String, Object> range(int startLine, int startCharacter, int endLine, int endCharacter) {
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("start", position(startLine, startCharacter));
+        range.put("end", position(endLine, endCharacter));
+        return range;
+    }
+
+    private static Map<String, Object> position(int line, int character) {
+        Map<String, Object> position = new LinkedHashMap<>();
+        position.put("line", line);
+        position.put("character", character);
+        return position;
+    }
+}
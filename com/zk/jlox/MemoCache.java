@@ -0,0 +1,95 @@
+package com.zk.jlox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 纯函数的调用结果缓存 Resolver 标记了 memoize 的函数才有
+ *
+ * 按参数缓存返回值 参数按 Lox 的 == 比较 拼接出来的 JloxRope 先转成 String
+ * LinkedHashMap 按访问顺序排列 超过容量时淘汰最久没有用到的结果
+ * 同一个函数可能同时在多个 spawn 出来的任务上调用 所有操作都加锁
+ */
+final class MemoCache {
+
+    static final int CAPACITY = 1 << 12;
+    // get 没有找到时的返回值 缓存的 nil 用 NIL 占位
+    static final Object MISSING = new Object();
+    private static final Object NIL = new Object();
+
+    private final LinkedHashMap<Key, Object> entries = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private long hits;
+    private long misses;
+
+    synchronized Object get(Key key) {
+        Object value = entries.get(key);
+        if (value == null) {
+            misses++;
+            return MISSING;
+        }
+        hits++;
+        return value == NIL ? null : value;
+    }
+
+    synchronized void put(Key key, Object value) {
+        entries.put(key, value == null ? NIL : value);
+    }
+
+    synchronized JloxMap stats() {
+        JloxMap stats = new JloxMap();
+        stats.set("hits", null, (double)hits, null);
+        stats.set("misses", null, (double)misses, null);
+        stats.set("size", null, (double)entries.size(), null);
+        stats.set("capacity", null, (double)CAPACITY, null);
+        return stats;
+    }
+
+    /**
+     * 一次调用的全部参数
+     */
+    static final class Key {
+
+        private final Object[] values;
+        private final int hash;
+
+        Key(Object[] values) {
+            // 直接使用传进来的数组 调用方不能再修改它
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] instanceof JloxRope) {
+                    values[i] = values[i].toString();
+                }
+            }
+            this.values = values;
+            // 除了 JloxRope 以外 isEqual 就是 equals 所以可以直接用 hashCode
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Object[] those = ((Key) other).values;
+            if (hash != ((Key) other).hash || those.length != values.length) {
+                return false;
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (!Interpreter.isEqual(values[i], those[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.zk.jlox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * 解释器运行时计数器 用 -Djlox.metrics=true 打开 -Djlox.metrics=dump 会在退出时打印到 stderr
+ *
+ * 计数用 LongAdder 多个线程各自累加到不同的分段上 读取时再合并
+ * ENABLED 是 static final 关闭时 JIT 会把 if (Metrics.ENABLED) 整段去掉
+ * JMX 相关的类放在 Bean 里 关闭时不会被加载
+ */
+final class Metrics {
+
+    private static final String MODE = System.getProperty("jlox.metrics", "false");
+    static final boolean ENABLED = MODE.equals("true") || MODE.equals("dump");
+
+    static final LongAdder ENVIRONMENTS = new LongAdder();
+    static final LongAdder CALLS = new LongAdder();
+    static final LongAdder INSTANCES = new LongAdder();
+    static final LongAdder PROPERTY_LOOKUPS = new LongAdder();
+    static final LongAdder SUPERCLASS_HOPS = new LongAdder();
+    static final LongAdder BINDS = new LongAdder();
+    static final LongAdder RUNTIME_ERRORS = new LongAdder();
+
+    static {
+        if (ENABLED) {
+            Bean.register();
+            if (MODE.equals("dump")) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(dump()), "jlox-metrics"));
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static String dump() {
+        return "environment allocations: " + ENVIRONMENTS.sum() + "\n"
+            + "function calls:          " + CALLS.sum() + "\n"
+            + "instance creations:      " + INSTANCES.sum() + "\n"
+            + "property lookups:        " + PROPERTY_LOOKUPS.sum() + "\n"
+            + "superclass hops:         " + SUPERCLASS_HOPS.sum() + "\n"
+            + "bind allocations:        " + BINDS.sum() + "\n"
+            + "runtime errors:          " + RUNTIME_ERRORS.sum() + "\n";
+    }
+
+    private static class Bean implements MetricsMBean {
+
+        static void register() {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(new Bean(), MetricsMBean.class),
+                    new ObjectName("com.zk.jlox:type=Metrics"));
+            } catch (JMException e) {
+                System.err.println("Failed to register metrics MBean: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public long getEnvironmentAllocations() {
+            return ENVIRONMENTS.sum();
+        }
+
+        @Override
+        public long getFunctionCalls() {
+            return CALLS.sum();
+        }
+
+        @Override
+        public long getInstanceCreations() {
+            return INSTANCES.sum();
+        }
+
+        @Override
+        public long getPropertyLookups() {
+            return PROPERTY_LOOKUPS.sum();
+        }
+
+        @Override
+        public long getSuperclassHops() {
+            return SUPERCLASS_HOPS.sum();
+        }
+
+        @Override
+        public long getBindAllocations() {
+            return BINDS.sum();
+        }
+
+        @Override
+        public long getRuntimeErrors() {
+            return RUNTIME_ERRORS.sum();
+        }
+
+        @Override
+        public void reset() {
+            ENVIRONMENTS.reset();
+            CALLS.reset();
+            INSTANCES.reset();
+            PROPERTY_LOOKUPS.reset();
+            SUPERCLASS_HOPS.reset();
+            BINDS.reset();
+            RUNTIME_ERRORS.reset();
+        }
+    }
+}
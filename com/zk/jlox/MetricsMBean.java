@@ -0,0 +1,15 @@
+package com.zk.jlox;
+
+/**
+ * 通过 JMX 暴露的运行时计数器 对象名 com.zk.jlox:type=Metrics
+ */
+public interface MetricsMBean {
+    long getEnvironmentAllocations();
+    long getFunctionCalls();
+    long getInstanceCreations();
+    long getPropertyLookups();
+    long getSuperclassHops();
+    long getBindAllocations();
+    long getRuntimeErrors();
+    void reset();
+}
@@ -0,0 +1,70 @@
+package com.zk.jlox;
+
+import java.io.Serializable;
+
+/**
+ * 用 Java 实现的内置函数
+ * 出错时抛出不带 token 的 RuntimeError 由调用处补上调用位置
+ *
+ * 全局的内置函数(Builtins)可以写进快照 绑定到列表等对象上的方法是 lambda 不能写进快照
+ */
+class NativeFunction implements JloxCallable, Serializable {
+
+    /**
+     * 内置函数最多 3 个参数 直接按位置传进来 用不到的参数是 null
+     */
+    interface Body {
+        Object call(Interpreter interpreter, Object a, Object b, Object c);
+    }
+
+    static final int MAX_ARITY = 3;
+
+    private final String name;
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(String name, int arity, Body body) {
+        if (arity > MAX_ARITY) {
+            throw new IllegalArgumentException("Native function " + name + " takes too many parameters.");
+        }
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return body.call(interpreter, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return body.call(interpreter, a, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return body.call(interpreter, a, b, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return body.call(interpreter, a, b, c);
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, Object[] arguments) {
+        // 参数个数在调用处已经检查过 内置函数不会走到这里
+        throw new RuntimeError(null, "Expect " + arity + " arguments, but got " + arguments.length + ".");
+    }
+
+    @Override
+    public String toString() {
+        return "<native fun " + name + ">";
+    }
+}
@@ -0,0 +1,139 @@
+package com.zk.jlox;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * print 语句的输出目标
+ *
+ * 默认写到一个 64KB 的缓冲区 满了才真正写 stdout 不再每行一次系统调用
+ * 缓冲区默认不按行刷新 Jlox 在每次执行结束 报告错误之前 退出之前显式 flush
+ * --watch 模式下脚本一直在运行 打开 flushEachLine 每行写完就刷新
+ * 嵌入使用时可以给 Interpreter 传自己的 Writer Appendable 或者 OutputStream
+ *
+ * spawn 出来的任务和主线程共用同一个 Output 写一行是一个整体 不会交错
+ */
+final class Output {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static Output standard;
+
+    private final Writer writer;
+    // 整数格式化用的临时空间 只在持有锁时使用
+    private final char[] digits = new char[20];
+    private volatile boolean flushEachLine = false;
+
+    Output(Writer writer) {
+        this.writer = writer;
+    }
+
+    Output(OutputStream stream) {
+        this(new BufferedWriter(new OutputStreamWriter(stream, Charset.defaultCharset()), 1 << 16));
+    }
+
+    Output(Appendable appendable) {
+        this(appendable instanceof Writer ? (Writer) appendable : new AppendableWriter(appendable));
+    }
+
+    static synchronized Output standard() {
+        // 进程里所有默认的 Interpreter 共用一个 stdout 缓冲区 否则多个缓冲区的输出会乱序
+        if (standard == null) {
+            standard = new Output(new FileOutputStream(FileDescriptor.out));
+        }
+        return standard;
+    }
+
+    synchronized void println(Object value) {
+        try {
+            if (value instanceof Double) {
+                writeNumber((double)value);
+            } else {
+                writer.write(Interpreter.stringfy(value));
+            }
+            writer.write(LINE_SEPARATOR);
+            if (flushEachLine) {
+                writer.flush();
+            }
+        } catch (IOException error) {
+            // 和 System.out 一样 输出失败(例如管道被关闭)时不影响脚本继续执行
+        }
+    }
+
+    void flushEachLine(boolean enabled) {
+        flushEachLine = enabled;
+    }
+
+    synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException error) {
+            // 同上
+        }
+    }
+
+    private void writeNumber(double number) throws IOException {
+        // 和 stringfy 的结果一致 Double.toString 在 1e7 以下不会用科学计数法
+        // 这个范围内的整数(-0 除外)直接写数字 不用先生成 "123.0" 再去掉 ".0"
+        if (number % 1 == 0 && Math.abs(number) < 1e7 && !(number == 0 && 1 / number < 0)) {
+            long value = (long)number;
+            boolean negative = value < 0;
+            if (negative) {
+                value = -value;
+            }
+            int position = digits.length;
+            do {
+                digits[--position] = (char)('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            if (negative) {
+                digits[--position] = '-';
+            }
+            writer.write(digits, position, digits.length - position);
+            return;
+        }
+        writer.write(Interpreter.stringfy(number));
+    }
+
+    /**
+     * 把任意 Appendable 适配成 Writer 例如 StringBuilder
+     */
+    private static final class AppendableWriter extends Writer {
+
+        private final Appendable appendable;
+
+        AppendableWriter(Appendable appendable) {
+            this.appendable = appendable;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                appendable.append(buffer[i]);
+            }
+        }
+
+        @Override
+        public void write(String text) throws IOException {
+            appendable.append(text);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (appendable instanceof Flushable) {
+                ((Flushable) appendable).flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
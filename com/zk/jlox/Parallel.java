@@ -0,0 +1,135 @@
+package com.zk.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * parallelMap parallelFilter parallelReduce 的实现
+ * 列表按下标二分 交给公共的 ForkJoinPool 执行 并行度是公共池的并行度(默认 CPU 核数减一) 调用方线程等待时也可能执行其中一部分
+ * 每个叶子任务用自己 fork 出来的 Interpreter 调用 Lox 函数 结果按原来的顺序返回
+ * 工作线程是默认大小的栈 深的递归换到 FrameMachine 的堆上栈帧 不依赖线程栈的大小
+ */
+class Parallel {
+
+    // ForkJoinPool 和二分递归本身占用的 Java 栈帧 见 Chunk.worker
+    private static final int FORK_FRAMES = 64;
+
+    private Parallel() {
+    }
+
+    static JloxList map(Interpreter interpreter, JloxList list, JloxCallable function) {
+        // 结果数组 和最后复制出来的列表
+        ExecutionBudget.allocate(interpreter,
+            ExecutionBudget.LIST_BYTES + 2 * ExecutionBudget.SLOT_BYTES * list.size(), null);
+        Object[] results = new Object[list.size()];
+        invoke(interpreter, list.size(), (worker, from, to) -> {
+            for (int i = from; i < to; i++) {
+                results[i] = function.call1(worker, list.get(i));
+            }
+            return null;
+        }, null);
+        return new JloxList(new ArrayList<>(Arrays.asList(results)));
+    }
+
+    static JloxList filter(Interpreter interpreter, JloxList list, JloxCallable function) {
+        // 最多保留所有元素
+        ExecutionBudget.allocate(interpreter,
+            ExecutionBudget.LIST_BYTES + 2 * ExecutionBudget.SLOT_BYTES * list.size(), null);
+        boolean[] keep = new boolean[list.size()];
+        invoke(interpreter, list.size(), (worker, from, to) -> {
+            for (int i = from; i < to; i++) {
+                keep[i] = Interpreter.isTruthy(function.call1(worker, list.get(i)));
+            }
+            return null;
+        }, null);
+        List<Object> results = new ArrayList<>();
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                results.add(list.get(i));
+            }
+        }
+        return new JloxList(results);
+    }
+
+    static Object reduce(Interpreter interpreter, JloxList list, JloxCallable function, Object initial) {
+        // 每一段先各自从左到右归约 再按顺序两两合并 所以 function 需要满足结合律
+        if (list.size() == 0) {
+            return initial;
+        }
+        Object total = invoke(interpreter, list.size(), (worker, from, to) -> {
+            Object accumulator = list.get(from);
+            for (int i = from + 1; i < to; i++) {
+                accumulator = function.call2(worker, accumulator, list.get(i));
+            }
+            return accumulator;
+        }, (worker, left, right) -> function.call2(worker, left, right));
+        return function.call2(interpreter, initial, total);
+    }
+
+    private static Object invoke(Interpreter interpreter, int size, Leaf leaf, Merge merge) {
+        if (size == 0) {
+            return null;
+        }
+        // 切得比线程数多一些 让先做完的线程可以去偷其他任务
+        int threshold = Math.max(1, size / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        int frames = interpreter.frames + FORK_FRAMES;
+        return ForkJoinPool.commonPool().invoke(new Chunk(interpreter, leaf, merge, 0, size, threshold, frames));
+    }
+
+    private interface Leaf {
+        Object run(Interpreter worker, int from, int to);
+    }
+
+    private interface Merge {
+        Object merge(Interpreter worker, Object left, Object right);
+    }
+
+    private static class Chunk extends RecursiveTask<Object> {
+        private final Interpreter interpreter;
+        private final Leaf leaf;
+        private final Merge merge;
+        private final int from;
+        private final int to;
+        private final int threshold;
+        // 调用方已经占用的 Java 栈帧
+        private final int frames;
+
+        Chunk(Interpreter interpreter, Leaf leaf, Merge merge, int from, int to, int threshold, int frames) {
+            this.interpreter = interpreter;
+            this.leaf = leaf;
+            this.merge = merge;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.frames = frames;
+        }
+
+        private Interpreter worker() {
+            // 任务可能在调用方线程上执行 也可能是工作线程在 join 时接着执行的 栈上已经有外层的调用
+            // 所以从调用方已经占用的栈帧算起 更深的调用提前换到 FrameMachine
+            Interpreter worker = interpreter.fork();
+            worker.frames = frames;
+            return worker;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from <= threshold) {
+                // 叶子任务 在当前工作线程上用独立的 Interpreter 执行
+                return leaf.run(worker(), from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Chunk left = new Chunk(interpreter, leaf, merge, from, middle, threshold, frames);
+            left.fork();
+            Object right = new Chunk(interpreter, leaf, merge, middle, to, threshold, frames).compute();
+            Object result = left.join();
+            if (merge == null) {
+                return null;
+            }
+            return merge.merge(worker(), result, right);
+        }
+    }
+}
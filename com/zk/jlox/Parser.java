@@ -15,7 +15,7 @@ class Parser {
     /*
         第一部分 表达式
         expression     → assignment ;
-        assignment     → ( call "." )? IDENTIFIER "=" assignment | logic_or ;
+        assignment     → ( call "." )? IDENTIFIER "=" assignment | call "[" expression "]" "=" assignment | logic_or ;
         logic_or       → logic_and ("or" logic_and)* ;
         logic_and      → equality ( "and " equality )* ;
         equality       → comparison ( ( "!=" | "==" ) comparison )* ;
@@ -23,9 +23,9 @@ class Parser {
         term           → factor ( ( "-" | "+" ) factor )* ;
         factor         → unary ( ( "/" | "*" ) unary )* ;
         unary          → ( "!" | "-" ) unary | call ;
-        call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
+        call           → primary ( "(" arguments? ")" | "." IDENTIFIER | "[" expression "]" )* ;
         arguments      → expression ( "," expression )* ;
-        primary        → "true" | "false" | "nil" | "this" | NUMBER | STRING | IDENTIFIER | "(" expression ")" | "super" "." IDENTIFIER ;
+        primary        → "true" | "false" | "nil" | "this" | NUMBER | STRING | IDENTIFIER | "(" expression ")" | "super" "." IDENTIFIER | "[" arguments? "]" ;
 
         第二部分 语句
         program        → declaration* EOF ;
@@ -45,8 +45,16 @@ class Parser {
         block          → "{" declaration* "}" ;
      */
 
+    // 语法树最多嵌套的层数 后面的 Resolver TypeInference Compiler 都按语法树递归 太深会耗尽线程栈
+    // 前端在公共 ForkJoinPool 的线程上执行 栈是默认大小 所以在这里拒绝 不让任何线程溢出
+    private static final int MAX_DEPTH = 1000;
+    // 括号等处嵌套的表达式 解析时要经过 expression 到 primary 十几层调用 按这么多层计算
+    private static final int EXPRESSION_DEPTH = 4;
+
     private final List<Token> tokens;
     private int current = 0;
+    // 当前位置的嵌套层数 左结合的运算符链也是一层套一层的语法树 每个运算符算一层
+    private int depth = 0;
     private static class ParseError extends RuntimeException {}
 
     Parser(List<Token> tokens) {
@@ -62,6 +70,7 @@ class Parser {
     }
 
     private Stmt declaration() {
+        int saved = depth;
         try {
             if (match(TokenType.CLASS)) {
                 return classDeclaration();
@@ -74,6 +83,8 @@ class Parser {
             }
             return statement();
         } catch (ParseError error) {
+            // 出错时跳过的部分不会恢复嵌套层数 在这里恢复
+            depth = saved;
             synchronize();
             return null;
         }
@@ -147,6 +158,14 @@ class Parser {
     }
 
     private Stmt statement() {
+        int saved = depth;
+        nest(peek(), 1);
+        Stmt statement = nestedStatement();
+        depth = saved;
+        return statement;
+    }
+
+    private Stmt nestedStatement() {
         if (match(TokenType.FOR)) {
             return forStatement();
         }
@@ -197,6 +216,8 @@ class Parser {
          * - body 循环体代码块
          */
 
+        // 记下 for 关键字 脱糖后的 while 用它报告位置
+        Token keyword = previous();
         // 首先以左括号开始
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
 
@@ -248,7 +269,7 @@ class Parser {
         }
         // 脱糖部分 三
         // for 循环转成 while 循环
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         // 脱糖部分 四
         if (initializer != null) {
@@ -261,12 +282,13 @@ class Parser {
 
     private Stmt whileStatement() {
         // whileStmt      → "while" "(" expression ")" statement ;
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expect '(' after if.");
         Expr expr = expression();
         consume(TokenType.RIGHT_PAREN, "Expect ')' after if condition.");
 
         Stmt stmt = statement();
-        return new Stmt.While(expr, stmt);
+        return new Stmt.While(keyword, expr, stmt);
     }
 
     private Stmt ifStatement() {
@@ -316,7 +338,18 @@ class Parser {
 
     private Expr expression() {
         // return equality();
-        return assignment();
+        int saved = depth;
+        nest(peek(), EXPRESSION_DEPTH);
+        Expr expr = assignment();
+        depth = saved;
+        return expr;
+    }
+
+    private void nest(Token token, int levels) {
+        depth += levels;
+        if (depth > MAX_DEPTH) {
+            throw error(token, "Too deeply nested.");
+        }
     }
 
     private Expr assignment() {
@@ -325,7 +358,10 @@ class Parser {
 
         if (match(TokenType.EQUAL)) {
             Token equals = previous();
+            int saved = depth;
+            nest(equals, 1);
             Expr value = assignment();
+            depth = saved;
 
             if (expr instanceof Expr.Variable) {
                 // 如果左侧是个变量表达式 认为是赋值操作
@@ -334,6 +370,10 @@ class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                // 下标赋值 list[i] = value
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -343,68 +383,86 @@ class Parser {
 
     private Expr or() {
         // logic_or       → logic_and ("or" logic_and)* ;
+        int saved = depth;
         Expr expr = and();
         while (match(TokenType.OR)) {
             Token operator = previous();
+            nest(operator, 1);
             Expr right = and();
             expr = new Expr.Logical(expr, operator, right);
         }
+        depth = saved;
         return expr;
     }
 
     private Expr and() {
         // logic_and      → equality ( "and " equality )* ;
+        int saved = depth;
         Expr expr = equality();
         while (match(TokenType.AND)) {
             Token operator = previous();
+            nest(operator, 1);
             Expr right = equality();
             expr = new Expr.Logical(expr, operator, right);
         }
+        depth = saved;
         return expr;
     }
 
     private Expr equality() {
         // equality       → comparison ( ( "!=" | "==" ) comparison )* ;
+        int saved = depth;
         Expr expr = comparison();
 
         while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
             Token operator = previous();
+            nest(operator, 1);
             Expr right = comparison();
             expr = new Expr.Binary(expr, operator, right);
         }
+        depth = saved;
         return expr;
     }
 
     private Expr comparison() {
         // comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+        int saved = depth;
         Expr expr = term();
         while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
             Token operator = previous();
+            nest(operator, 1);
             Expr right = term();
             expr = new Expr.Binary(expr, operator, right);
         }
+        depth = saved;
         return expr;
     }
 
     private Expr term() {
         // term           → factor ( ( "-" | "+" ) factor )* ;
+        int saved = depth;
         Expr expr = factor();
         while (match(TokenType.MINUS, TokenType.PLUS)) {
             Token operator = previous();
+            nest(operator, 1);
             Expr right = factor();
             expr = new Expr.Binary(expr, operator, right);
         }
+        depth = saved;
         return expr;
     }
 
     private Expr factor() {
         // factor         → unary ( ( "/" | "*" ) unary )* ;
+        int saved = depth;
         Expr expr = unary();
         while (match(TokenType.SLASH, TokenType.STAR)) {
             Token operator = previous();
+            nest(operator, 1);
             Expr right = unary();
             expr = new Expr.Binary(expr, operator, right);
         }
+        depth = saved;
         return expr;
     }
 
@@ -412,7 +470,10 @@ class Parser {
         // unary          → ( "!" | "-" ) unary | primary
         while (match(TokenType.BANG, TokenType.MINUS)) {
             Token operator = previous();
+            int saved = depth;
+            nest(operator, 1);
             Expr right = unary();
+            depth = saved;
             return new Expr.Unary(operator, right);
         }
         return call();
@@ -422,8 +483,13 @@ class Parser {
     private Expr call() {
         // 解析函数调用
         // call           → primary ( "(" arguments? ")" )* ;
+        int saved = depth;
         Expr expr = primary();
         while (true) {
+            if (check(TokenType.LEFT_PAREN) || check(TokenType.DOT) || check(TokenType.LEFT_BRACKET)) {
+                // 调用 属性 下标连在一起时 每个都包着前面的表达式
+                nest(peek(), 1);
+            }
             if (match(TokenType.LEFT_PAREN)) {
                 // 如果当前位置是左括号 认为是一次函数调用
                 expr = finishCall(expr);
@@ -432,11 +498,18 @@ class Parser {
                 // expr = getProperty();
                 Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(TokenType.LEFT_BRACKET)) {
+                // 如果遇到左中括号 认为是下标访问
+                Token bracket = previous();
+                Expr index = expression();
+                consume(TokenType.RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 // 如果不是左括号 就只是一个普通的标识符
                 break;
             }
           }
+        depth = saved;
         return expr;
     }
 
@@ -500,6 +573,18 @@ class Parser {
             consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
             return new Expr.Grouping(expr);
         }
+        if (match(TokenType.LEFT_BRACKET)) {
+            // 列表字面量 [a, b, c]
+            Token bracket = previous();
+            List<Expr> elements = new ArrayList<>();
+            if (!check(TokenType.RIGHT_BRACKET)) {
+                do {
+                    elements.add(expression());
+                } while (match(TokenType.COMMA));
+            }
+            consume(TokenType.RIGHT_BRACKET, "Expect ']' after list elements.");
+            return new Expr.ListLiteral(bracket, elements);
+        }
         throw error(peek(), "Expect expression.");
     }
 
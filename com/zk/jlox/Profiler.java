@@ -0,0 +1,148 @@
+package com.zk.jlox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * --profile 模式下的采样分析器
+ * 后台线程按固定间隔读取每个线程的 Lox 调用栈 按 折叠栈 的格式统计
+ * 输出可以直接交给 flamegraph.pl 之类的火焰图工具 同时打印每个函数的 self/total 时间
+ */
+class Profiler {
+
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int TOP = 20;
+
+    private final List<Registration> stacks = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<CallStack> current = ThreadLocal.withInitial(this::register);
+    // 只有采样线程会修改
+    private final Map<String, Long> samples = new HashMap<>();
+    private volatile boolean running;
+    private Thread sampler;
+
+    private static class Registration {
+        final String root;
+        final CallStack stack;
+        final boolean main;
+        // 注册的线程 结束之后由采样线程移除 见 sample
+        final Thread thread;
+
+        Registration(String root, CallStack stack, boolean main, Thread thread) {
+            this.root = root;
+            this.stack = stack;
+            this.main = main;
+            this.thread = thread;
+        }
+    }
+
+    CallStack currentStack() {
+        return current.get();
+    }
+
+    private CallStack register() {
+        // 每个线程第一次调用 Lox 函数时注册自己的调用栈
+        CallStack stack = new CallStack();
+        boolean main = stacks.isEmpty();
+        stacks.add(new Registration(main ? "<script>" : "<thread>", stack, main, Thread.currentThread()));
+        return stack;
+    }
+
+    void start() {
+        // 主线程先注册 保证它是 <script>
+        currentStack();
+        running = true;
+        sampler = new Thread(this::sample, "jlox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        while (running) {
+            LockSupport.parkNanos(INTERVAL_NANOS);
+            for (Registration registration : stacks) {
+                if (!registration.thread.isAlive()) {
+                    // spawn 的任务结束了 或者工作线程空闲太久退出了 不再保留它的调用栈
+                    stacks.remove(registration);
+                    continue;
+                }
+                Stmt.Function[] frames = registration.stack.snapshot();
+                if (frames.length == 0 && !registration.main) {
+                    // 空闲的工作线程不计入
+                    continue;
+                }
+                StringBuilder key = new StringBuilder(registration.root);
+                for (Stmt.Function frame : frames) {
+                    if (frame == null) {
+                        // 读到了正在 push 的栈帧
+                        break;
+                    }
+                    key.append(';').append(label(frame));
+                }
+                samples.merge(key.toString(), 1L, Long::sum);
+            }
+        }
+    }
+
+    private static String label(Stmt.Function function) {
+        return function.name.lexeme + ":" + function.name.line;
+    }
+
+    void writeCollapsed(String path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(path, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : samples.entrySet()) {
+                writer.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+    }
+
+    void printTable(PrintStream out) {
+        // self: 函数在栈顶的采样数 total: 函数出现在栈上的采样数(递归只算一次)
+        Map<String, Long> self = new HashMap<>();
+        Map<String, Long> total = new HashMap<>();
+        long all = 0;
+        for (Map.Entry<String, Long> entry : samples.entrySet()) {
+            String[] frames = entry.getKey().split(";");
+            long count = entry.getValue();
+            all += count;
+            self.merge(frames[frames.length - 1], count, Long::sum);
+            Set<String> seen = new HashSet<>();
+            for (String frame : frames) {
+                if (seen.add(frame)) {
+                    total.merge(frame, count, Long::sum);
+                }
+            }
+        }
+
+        List<String> functions = new ArrayList<>(total.keySet());
+        functions.sort((a, b) -> Long.compare(self.getOrDefault(b, 0L), self.getOrDefault(a, 0L)));
+        double millis = INTERVAL_NANOS / 1_000_000.0;
+        out.println(String.format("%d samples, %.1f ms interval", all, millis));
+        out.println(String.format("%10s %7s %10s %7s  %s", "self ms", "self%", "total ms", "total%", "function"));
+        for (String function : functions.subList(0, Math.min(TOP, functions.size()))) {
+            long s = self.getOrDefault(function, 0L);
+            long t = total.get(function);
+            out.println(String.format("%10.1f %6.1f%% %10.1f %6.1f%%  %s",
+                s * millis, 100.0 * s / all, t * millis, 100.0 * t / all, function));
+        }
+    }
+}
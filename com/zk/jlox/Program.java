@@ -0,0 +1,146 @@
+package com.zk.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 编译产物 即 Scanner + Parser + Resolver + TypeInference 处理之后的语法树 和 Compiler 从它生成的节点树
+ *
+ * Resolver 和 TypeInference 的结果已经写在语法树节点上 构造完成之后不再修改
+ * 所以同一个 Program 可以被多个线程上的 Interpreter 同时执行 不需要复制
+ * 每次执行的可变状态(作用域 全局变量)都只属于各自的 Interpreter
+ */
+final class Program {
+
+    final List<Stmt> statements;
+    // 在全局作用域里执行的节点树 见 Compiler
+    final StmtNode.Sequence code;
+
+    private Program(List<Stmt> statements) {
+        // final 字段保证 其他线程拿到 Program 时 能看到 Resolver 写入的结果和完整的节点树
+        this.statements = Collections.unmodifiableList(statements);
+        this.code = Compiler.compile(statements);
+    }
+
+    static Program compile(String source) {
+        return compile(source, true);
+    }
+
+    /**
+     * memoize 为 true 时 source 必须是完整的程序 Resolver 会据此找出可以缓存结果的纯函数
+     *
+     * 和多个文件时走同一条路径 错误收集到这次编译自己的 Diagnostics 里 有错误时返回 null
+     */
+    static Program compile(String source, boolean memoize) {
+        return compileFiles(Collections.singletonList(new Diagnostics(null)), Collections.singletonList(source), memoize);
+    }
+
+    /**
+     * 多个文件组成的程序 names 只用来标注诊断信息
+     *
+     * 每个文件的 Scanner + Parser 互不依赖 在公共 ForkJoinPool 上并行 和 Parallel 的内置函数用的是同一批线程
+     * 这些线程的栈是默认大小 Parser 限制了语法树的嵌套层数 前端和后面按语法树递归的步骤都不会溢出
+     * 然后按文件的顺序合并 Resolver 和 TypeInference 依次处理每个文件 全局变量的信息跨文件共享
+     * 错误和警告通过各自线程上的 Jlox.reporter 按文件收集 有没有错误只看各自的 Diagnostics
+     * 全部处理完再按文件顺序输出 输出的顺序和线程调度无关 有错误时返回 null
+     */
+    static Program compile(List<String> names, List<String> sources, boolean memoize) {
+        List<Diagnostics> diagnostics = new ArrayList<>();
+        for (String name : names) {
+            diagnostics.add(new Diagnostics(name));
+        }
+        return compileFiles(diagnostics, sources, memoize);
+    }
+
+    private static Program compileFiles(List<Diagnostics> diagnostics, List<String> sources, boolean memoize) {
+        List<List<Stmt>> files = IntStream.range(0, sources.size()).parallel()
+            .mapToObj(i -> parse(sources.get(i), diagnostics.get(i)))
+            .collect(Collectors.toList());
+        boolean hadError = diagnostics.stream().anyMatch(file -> file.hadError);
+
+        // 有语法错误时语法树不完整 不再做语义分析
+        if (!hadError) {
+            Resolver resolver = new Resolver(memoize);
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    Jlox.reporter.set(diagnostics.get(i));
+                    resolver.resolve(files.get(i));
+                }
+            } finally {
+                Jlox.reporter.remove();
+            }
+            hadError = diagnostics.stream().anyMatch(file -> file.hadError);
+            if (!hadError && memoize) {
+                resolver.markPureFunctions();
+            }
+        }
+        if (!hadError) {
+            try {
+                new TypeInference().infer(files, i -> Jlox.reporter.set(diagnostics.get(i)));
+            } finally {
+                Jlox.reporter.remove();
+            }
+        }
+
+        for (Diagnostics file : diagnostics) {
+            file.print();
+        }
+        if (hadError) {
+            return null;
+        }
+        List<Stmt> statements = new ArrayList<>();
+        for (List<Stmt> file : files) {
+            statements.addAll(file);
+        }
+        return new Program(statements);
+    }
+
+    private static List<Stmt> parse(String source, Diagnostics diagnostics) {
+        // 在公共 ForkJoinPool 的线程上执行 嵌套太深的代码由 Parser 报错 错误报告给这个文件自己的 Diagnostics
+        Jlox.reporter.set(diagnostics);
+        try {
+            return new Parser(new Scanner(source).scanTokens()).parse();
+        } finally {
+            Jlox.reporter.remove();
+        }
+    }
+
+    /**
+     * 一个文件的诊断信息 按报告的顺序保存 多个文件时前面加上文件名 只有一个源码时 name 是 null 不加前缀
+     */
+    private static final class Diagnostics implements ErrorReporter {
+
+        private final String prefix;
+        private final List<String> lines = new ArrayList<>();
+        // 和 lines 一一对应 true 表示警告
+        private final List<Boolean> warnings = new ArrayList<>();
+        boolean hadError = false;
+
+        Diagnostics(String name) {
+            this.prefix = name == null ? "" : name + ": ";
+        }
+
+        @Override
+        public void report(int line, String where, String message) {
+            hadError = true;
+            lines.add(prefix + "[line: " + line + "] Error " + where + ": " + message);
+            warnings.add(false);
+        }
+
+        @Override
+        public void warning(int line, String where, String message) {
+            lines.add(prefix + "[line: " + line + "] Warning" + where + ": " + message);
+            warnings.add(true);
+        }
+
+        void print() {
+            // 错误打到 stdout 警告打到 stderr
+            for (int i = 0; i < lines.size(); i++) {
+                (warnings.get(i) ? System.err : System.out).println(lines.get(i));
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.zk.jlox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -31,14 +33,54 @@ import com.zk.jlox.Stmt.While;
  * 比如
  *   1. 一个变量 先访问 再定义 就是非法操作 这里可以报错出去 不用等到运行时
  *   2. 在类中的方法定义时 将 this 添加到语义中 否则会报 this undefined
+ *
+ * 解析结果(变量所在作用域的距离)直接写到语法树节点的 depth 上
+ * 这样语法树不再依赖某个具体的 Interpreter 可以被多个 Interpreter 共享
+ *
+ * 需要的话还会找出顶层的纯函数 结果只由参数决定 调用结果可以缓存 见 markPureFunctions
  */
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
+    // 纯函数分析 只有整个程序一起解析时才打开 REPL 后面的输入可能修改前面依赖的全局变量
+    private final boolean findPure;
+    // 正在解析的顶层函数 不在顶层函数里时是 null
+    private Purity currentPurity;
+    private final List<Purity> topLevelFunctions = new ArrayList<>();
+    // 全局变量被 var fun class 定义的次数 和被赋值过的全局变量
+    private final Map<String, Integer> globalDefinitions = new HashMap<>();
+    private final java.util.Set<String> assignedGlobals = new HashSet<>();
+
+    /**
+     * 一个顶层函数的纯函数分析结果
+     */
+    private static final class Purity {
+        final Stmt.Function function;
+        // 函数体本身没有副作用 也不读可变的状态
+        boolean pure = true;
+        // 有循环 值得缓存
+        boolean loops = false;
+        // 读到的全局变量 只能是纯函数或者纯内置函数
+        final java.util.Set<String> globals = new HashSet<>();
+        // 调用的全局函数
+        final java.util.Set<String> callees = new HashSet<>();
+
+        Purity(Stmt.Function function) {
+            this.function = function;
+        }
+    }
+
+    Resolver() {
+        this(false);
+    }
+
+    Resolver(boolean findPure) {
+        this.findPure = findPure;
+    }
+
     private enum FunctionType {
         NONE,
         FUNCTION,
@@ -60,7 +102,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) {
             Jlox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        impure();
         return null;
     }
 
@@ -70,12 +113,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Jlox.error(expr.keyword, "Can't use this outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
     @Override
     public Void visitClassStmt(Class stmt) {
+        // 每次执行都会创建新的类
+        impure();
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
         declare(stmt.name);
@@ -117,27 +162,57 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
-
     @Override
     public Void visitSetExpr(Set expr) {
         resolve(expr.value);
         resolve(expr.object);
+        impure();
         return null;
     }
 
     @Override
     public Void visitGetExpr(Get expr) {
         resolve(expr.object);
+        // 字段可能被修改 同样的参数读到的值不一定一样
+        impure();
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth == -1) {
+            assignedGlobals.add(expr.name.lexeme);
+            impure();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        impure();
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        impure();
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+        // 每次执行都会创建新的列表 缓存之后会变成同一个
+        impure();
         return null;
     }
 
@@ -151,6 +226,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitCallExpr(Call expr) {
         resolve(expr.callee);
+        if (currentPurity != null) {
+            // 只能调用全局的函数名 调用参数或者表达式的结果不知道调用的是什么
+            if (expr.callee instanceof Variable && ((Variable) expr.callee).depth == -1) {
+                currentPurity.callees.add(((Variable) expr.callee).name.lexeme);
+            } else {
+                impure();
+            }
+        }
 
         for (Expr argument : expr.arguments) {
           resolve(argument);
@@ -189,19 +272,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Jlox.error(expr.name, "Can't read local variable in its own initializer. / Variable not init.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth == -1 && currentPurity != null) {
+            currentPurity.globals.add(expr.name.lexeme);
+        }
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private int resolveLocal(Token name) {
         // 倒序遍历作用域堆栈 由最近的开始
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                // 如果变量在这个作用域中
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+                // 如果变量在这个作用域中 返回作用域距离
+                return scopes.size() - 1 - i;
             }
         }
+        // 找不到 视为全局变量
+        return -1;
     }
 
     @Override
@@ -243,9 +330,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Function stmt) {
+        // 每次执行都会创建新的闭包
+        impure();
+        boolean topLevel = scopes.isEmpty();
         declare(stmt.name);
         define(stmt.name);
 
+        if (findPure && topLevel) {
+            currentPurity = new Purity(stmt);
+            topLevelFunctions.add(currentPurity);
+            resolveFunction(stmt, FunctionType.FUNCTION);
+            currentPurity = null;
+            return null;
+        }
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
@@ -276,6 +373,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Print stmt) {
         resolve(stmt.expression);
+        impure();
         return null;
     }
 
@@ -308,6 +406,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void declare(Token name) {
         // 标记变量声明
         if (scopes.isEmpty()) {
+            globalDefinitions.merge(name.lexeme, 1, Integer::sum);
             return;
         }
         // 变量重复声明检测
@@ -329,7 +428,66 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitWhileStmt(While stmt) {
         resolve(stmt.condition);
         resolve(stmt.body);
+        if (currentPurity != null) {
+            currentPurity.loops = true;
+        }
         return null;
     }
 
+    private void impure() {
+        if (currentPurity != null) {
+            currentPurity.pure = false;
+        }
+    }
+
+    /**
+     * 整个程序解析完之后调用 找出纯函数 标记需要缓存结果的函数
+     *
+     * 纯函数: 函数体里没有 print 没有给全局变量 字段 下标赋值 不读字段和 this
+     * 不创建列表 闭包 类 读到的全局变量只有纯函数和纯内置函数 并且这些名字只定义过一次 从来没被赋值
+     * 互相调用的函数先都假设是纯的 再把依赖了不纯名字的函数反复去掉 直到不再变化
+     *
+     * 纯函数里有循环或者调用了其他 Lox 函数时才缓存 简单的函数查缓存比直接执行还慢
+     */
+    void markPureFunctions() {
+        Map<String, Purity> byName = new HashMap<>();
+        for (Purity purity : topLevelFunctions) {
+            String name = purity.function.name.lexeme;
+            if (globalDefinitions.get(name) == 1 && !assignedGlobals.contains(name)) {
+                byName.put(name, purity);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Purity purity : topLevelFunctions) {
+                if (purity.pure && !dependsOnPure(purity, byName)) {
+                    purity.pure = false;
+                    changed = true;
+                }
+            }
+        }
+        for (Purity purity : topLevelFunctions) {
+            if (!purity.pure) {
+                continue;
+            }
+            boolean callsFunction = false;
+            for (String callee : purity.callees) {
+                callsFunction |= byName.containsKey(callee);
+            }
+            purity.function.memoize = purity.loops || callsFunction;
+        }
+    }
+
+    private boolean dependsOnPure(Purity purity, Map<String, Purity> byName) {
+        for (String name : purity.globals) {
+            Purity other = byName.get(name);
+            if (other != null ? !other.pure
+                : !Builtins.isPure(name) || globalDefinitions.containsKey(name) || assignedGlobals.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
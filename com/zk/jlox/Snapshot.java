@@ -0,0 +1,115 @@
+package com.zk.jlox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * 堆快照 把执行完前导脚本之后的全局变量写到文件里 之后的执行直接读回来 不用再执行一遍
+ *
+ * 用 Java 序列化 函数 类 实例 闭包的作用域 列表 哈希表 连同它们引用的语法树(带着 Resolver 的结果)一起写进去
+ * 全局作用域本身不写 写的时候换成一个标记 读的时候换成当前 Interpreter 的 globals
+ * 这样快照里函数的闭包和之后执行的脚本用的是同一个全局作用域
+ *
+ * 内置函数按编号写 spawn 出来的任务 通道 绑定到对象上的内置方法不能写进快照
+ * 没有固定 serialVersionUID jlox 的类变了之后旧的快照会读取失败 需要重新生成
+ */
+final class Snapshot {
+
+    private static final String MAGIC = "jlox-snapshot";
+    private static final int VERSION = 1;
+    // 只读回 jlox 自己的类和它们用到的 JDK 类型 其他的类一律拒绝
+    private static final ObjectInputFilter FILTER =
+        ObjectInputFilter.Config.createFilter("com.zk.jlox.*;java.lang.*;java.util.*;!*");
+
+    // 代替全局作用域写进快照的标记
+    private enum Globals {
+        MARKER
+    }
+
+    private Snapshot() {
+    }
+
+    static void write(Interpreter interpreter, Path path) throws IOException {
+        // 先写临时文件再改名 写到一半失败不会留下坏的快照
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (SnapshotOutput out = new SnapshotOutput(
+                new BufferedOutputStream(Files.newOutputStream(temporary)), interpreter.globals)) {
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            out.writeObject(interpreter.globals.variables());
+        } catch (NotSerializableException error) {
+            Files.deleteIfExists(temporary);
+            // 绑定的内置方法是 lambda 类名没有意义
+            String what = error.getMessage().contains("$$Lambda") ? "a bound native method" : error.getMessage();
+            throw new IOException("Can't write " + what + " into a snapshot.");
+        } catch (IOException error) {
+            Files.deleteIfExists(temporary);
+            throw error;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static void read(Interpreter interpreter, Path path) throws IOException {
+        Map<?, ?> variables;
+        try (SnapshotInput in = new SnapshotInput(
+                new BufferedInputStream(Files.newInputStream(path)), interpreter.globals)) {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                throw new IOException(path + " is not a jlox snapshot.");
+            }
+            variables = (Map<?, ?>) in.readObject();
+        } catch (StreamCorruptedException error) {
+            throw new IOException(path + " is not a jlox snapshot.");
+        } catch (InvalidClassException | ClassNotFoundException error) {
+            throw new IOException(path + " was written by a different jlox build: " + error.getMessage());
+        }
+        for (Map.Entry<?, ?> entry : variables.entrySet()) {
+            interpreter.globals.define((String) entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static final class SnapshotOutput extends ObjectOutputStream {
+
+        private final Environment globals;
+
+        SnapshotOutput(OutputStream out, Environment globals) throws IOException {
+            super(out);
+            this.globals = globals;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object object) {
+            return object == globals ? Globals.MARKER : object;
+        }
+    }
+
+    private static final class SnapshotInput extends ObjectInputStream {
+
+        private final Environment globals;
+
+        SnapshotInput(InputStream in, Environment globals) throws IOException {
+            super(in);
+            this.globals = globals;
+            setObjectInputFilter(FILTER);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object object) {
+            return object == Globals.MARKER ? globals : object;
+        }
+    }
+}
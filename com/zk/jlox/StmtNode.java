@@ -0,0 +1,260 @@
+package com.zk.jlox;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编译之后的语句 由 Compiler 从 Stmt 生成 见 Compiler 和 ExprNode
+ *
+ * 当前作用域作为参数传下去 进出代码块时不用修改 Interpreter 上的状态
+ * return 不再抛异常 execute 的返回值一层层传回到 JloxFunction
+ */
+abstract class StmtNode implements Serializable {
+
+    // 正常执行完 继续执行下一条语句 其他返回值表示执行了 return 值就是函数的返回值
+    static final Object NORMAL = new Object();
+
+    abstract Object execute(Interpreter interpreter, Environment environment);
+
+    static final class Expression extends StmtNode {
+        private final ExprNode expression;
+
+        Expression(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            expression.evaluate(interpreter, environment);
+            return NORMAL;
+        }
+    }
+
+    static final class Print extends StmtNode {
+        private final ExprNode expression;
+
+        Print(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            Object value = expression.evaluate(interpreter, environment);
+            if (Jlox.launchedAt != 0) {
+                Jlox.firstOutput();
+            }
+            interpreter.output.println(value);
+            return NORMAL;
+        }
+    }
+
+    static final class Var extends StmtNode {
+        private final String name;
+        // 没有初始值时是 null
+        private final ExprNode initializer;
+
+        Var(String name, ExprNode initializer) {
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            Object value = null;
+            if (initializer != null) {
+                value = initializer.evaluate(interpreter, environment);
+            }
+            environment.define(name, value);
+            return NORMAL;
+        }
+    }
+
+    /**
+     * 在给定的作用域里依次执行 函数体和整个程序都是一个 Sequence
+     */
+    static final class Sequence extends StmtNode {
+        private final StmtNode[] statements;
+        // 作为函数体时 一次调用最多占用多少层 Java 栈帧 见 Compiler
+        final int frames;
+
+        Sequence(StmtNode[] statements) {
+            this(statements, 0);
+        }
+
+        Sequence(StmtNode[] statements, int frames) {
+            this.statements = statements;
+            this.frames = frames;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            for (StmtNode statement : statements) {
+                Object result = statement.execute(interpreter, environment);
+                if (result != NORMAL) {
+                    return result;
+                }
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class Block extends StmtNode {
+        private final StmtNode[] statements;
+
+        Block(StmtNode[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            if (interpreter.budget != null) {
+                interpreter.budget.charge(ExecutionBudget.ENVIRONMENT_BYTES);
+            }
+            Environment scope = new Environment(environment);
+            for (StmtNode statement : statements) {
+                Object result = statement.execute(interpreter, scope);
+                if (result != NORMAL) {
+                    return result;
+                }
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class If extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode thenBranch;
+        // 没有 else 时是 null
+        private final StmtNode elseBranch;
+
+        If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            if (Interpreter.isTruthy(condition.evaluate(interpreter, environment))) {
+                return thenBranch.execute(interpreter, environment);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(interpreter, environment);
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class While extends StmtNode {
+        private final Token keyword;
+        private final ExprNode condition;
+        private final StmtNode body;
+
+        While(Token keyword, ExprNode condition, StmtNode body) {
+            this.keyword = keyword;
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            ExecutionBudget budget = interpreter.budget;
+            while (Interpreter.isTruthy(condition.evaluate(interpreter, environment))) {
+                Object result = body.execute(interpreter, environment);
+                if (result != NORMAL) {
+                    return result;
+                }
+                // 循环回边 检查执行预算
+                if (budget != null) {
+                    budget.tick(keyword);
+                }
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class Return extends StmtNode {
+        // 没有返回值时是 null
+        private final ExprNode value;
+
+        Return(ExprNode value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            if (value == null) {
+                return null;
+            }
+            return value.evaluate(interpreter, environment);
+        }
+    }
+
+    static final class Function extends StmtNode {
+        final Stmt.Function declaration;
+        final Sequence body;
+
+        Function(Stmt.Function declaration, Sequence body) {
+            this.declaration = declaration;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            // 这里是普通函数的定义
+            environment.define(declaration.name.lexeme, create(environment, false));
+            return NORMAL;
+        }
+
+        JloxFunction create(Environment closure, boolean isInitializer) {
+            return new JloxFunction(declaration, body, closure, isInitializer);
+        }
+    }
+
+    static final class Class extends StmtNode {
+        private final Token name;
+        // 没有父类时是 null
+        private final ExprNode superClass;
+        private final Function[] methods;
+
+        Class(Token name, ExprNode superClass, Function[] methods) {
+            this.name = name;
+            this.superClass = superClass;
+            this.methods = methods;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            // 类创建完之后再定义类名 父类表达式求值失败时不会留下定义了一半的类
+            environment.define(name.lexeme, create(interpreter, environment));
+            return NORMAL;
+        }
+
+        JloxClass create(Interpreter interpreter, Environment environment) {
+            Object superClass = null;
+            if (this.superClass != null) {
+                // 运行时取出父类 并检测父类必须也是个类
+                superClass = this.superClass.evaluate(interpreter, environment);
+                if (!(superClass instanceof JloxClass)) {
+                    throw new RuntimeError(name, "Super class must be a class.");
+                }
+            }
+
+            // 将 父类 的值设置到 super 上
+            // 方法的闭包是当前作用域 类名定义在当前作用域上 方法里可以引用类自己
+            Environment closure = environment;
+            if (this.superClass != null) {
+                closure = new Environment(environment);
+                closure.define("super", superClass);
+            }
+
+            Map<String, JloxFunction> methods = new HashMap<>();
+            for (Function method : this.methods) {
+                // 声明类中的方法
+                String name = method.declaration.name.lexeme;
+                methods.put(name, method.create(closure, name.equals("init")));
+            }
+            return new JloxClass(name.lexeme, (JloxClass)superClass, methods);
+        }
+    }
+}
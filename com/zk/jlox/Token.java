@@ -1,6 +1,8 @@
 package com.zk.jlox;
 
-class Token {
+import java.io.Serializable;
+
+class Token implements Serializable {
     final TokenType type;
     final String lexeme;
     final Object literal;
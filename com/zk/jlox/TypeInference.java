@@ -0,0 +1,513 @@
+package com.zk.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Resolver 之后的静态类型推导 结果写在语法树上 给 Interpreter 跳过运行时检查
+ * - Binary.numeric 两边一定是数字 算术和比较不用再检查类型
+ * - Binary.strings 两边一定是字符串 加法直接拼接
+ * - Unary.numeric 操作数一定是数字
+ * 同时把一定会出错的运算作为警告报告出来 不影响执行
+ *
+ * 只跟踪局部变量 按控制流推导: if 的两个分支合并 while 循环迭代到不动点
+ * 全局变量可能被任何函数 或者并发执行的任务修改 当作未知
+ * 被内层函数赋值过的局部变量 随时可能被闭包修改 也当作未知
+ * 内层函数读外层的局部变量时 只有在它声明之后从来没被赋值过 才用声明时的类型
+ * 函数参数不做跨函数的推导 当作未知
+ *
+ * 类和函数的类型只用来报告警告 不会影响执行
+ */
+class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+
+    enum Kind {
+        NUMBER, STRING, BOOLEAN, NIL, CALLABLE, CLASS, INSTANCE, UNKNOWN
+    }
+
+    static final class Type {
+        static final Type NUMBER = new Type(Kind.NUMBER, null);
+        static final Type STRING = new Type(Kind.STRING, null);
+        static final Type BOOLEAN = new Type(Kind.BOOLEAN, null);
+        static final Type NIL = new Type(Kind.NIL, null);
+        static final Type CALLABLE = new Type(Kind.CALLABLE, null);
+        static final Type UNKNOWN = new Type(Kind.UNKNOWN, null);
+
+        final Kind kind;
+        // CLASS INSTANCE 对应的类名 其他时候为 null
+        final String className;
+
+        private Type(Kind kind, String className) {
+            this.kind = kind;
+            this.className = className;
+        }
+
+        static Type classOf(String name) {
+            return new Type(Kind.CLASS, name);
+        }
+
+        static Type instanceOf(String name) {
+            return new Type(Kind.INSTANCE, name);
+        }
+
+        boolean is(Kind kind) {
+            return this.kind == kind;
+        }
+
+        boolean known() {
+            return kind != Kind.UNKNOWN;
+        }
+
+        Type join(Type other) {
+            return equals(other) ? this : UNKNOWN;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Type && ((Type) other).kind == kind
+                && Objects.equals(((Type) other).className, className);
+        }
+
+        @Override
+        public int hashCode() {
+            return kind.hashCode() * 31 + Objects.hashCode(className);
+        }
+    }
+
+    // 局部作用域 名字 -> 声明它的 token 全局作用域不在这里
+    private final List<Map<String, Token>> scopes = new ArrayList<>();
+    // 每个局部变量声明在第几层函数里
+    private final Map<Token, Integer> levels = new HashMap<>();
+    // 局部变量声明时的类型
+    private final Map<Token, Type> declared = new HashMap<>();
+    // 当前函数里局部变量在当前位置的类型
+    private Map<Token, Type> state = new HashMap<>();
+
+    // 第一遍收集: 声明之后被赋值过的局部变量 以及被内层函数赋值过的局部变量
+    private final Set<Token> reassigned = new HashSet<>();
+    private final Set<Token> unstable = new HashSet<>();
+    // 被赋值过的全局变量 和在顶层声明为 class fun 的全局变量
+    private final Set<String> assignedGlobals = new HashSet<>();
+    private final Map<String, Type> globals = new HashMap<>();
+
+    private int function = 0;
+    // 第一遍收集赋值信息时为 true
+    private boolean collecting = false;
+    // 大于 0 时只推导状态 不写结果 不报警告(第一遍收集和循环求不动点时)
+    private int dry = 0;
+
+    void infer(List<Stmt> statements) {
+        infer(Collections.singletonList(statements), null);
+    }
+
+    /**
+     * 多个文件合并成的程序 全局变量的赋值信息要看完所有文件才知道
+     * 第二遍处理第 i 个文件之前调用 onFile.accept(i) 调用方用来切换警告归属的文件
+     */
+    void infer(List<List<Stmt>> files, IntConsumer onFile) {
+        // 第一遍 只收集赋值信息
+        collecting = true;
+        dry++;
+        for (List<Stmt> statements : files) {
+            execute(statements);
+        }
+        dry--;
+        collecting = false;
+        scopes.clear();
+        state = new HashMap<>();
+        for (String name : assignedGlobals) {
+            globals.remove(name);
+        }
+        // 第二遍 写入结果
+        for (int i = 0; i < files.size(); i++) {
+            if (onFile != null) {
+                onFile.accept(i);
+            }
+            execute(files.get(i));
+        }
+    }
+
+    private void execute(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private Type infer(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        execute(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (stmt.superClass != null) {
+            infer(stmt.superClass);
+        }
+        declare(stmt.name, Type.classOf(stmt.name.lexeme));
+        for (Stmt.Function method : stmt.methods) {
+            function(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name, Type.CALLABLE);
+        function(stmt);
+        return null;
+    }
+
+    private void function(Stmt.Function stmt) {
+        // 函数体只在声明处分析一次 调用时外层局部变量的类型不一定还成立 所以用新的状态
+        Map<Token, Type> enclosing = state;
+        state = new HashMap<>();
+        function++;
+        beginScope();
+        for (Token param : stmt.params) {
+            declare(param, Type.UNKNOWN);
+        }
+        execute(stmt.body);
+        endScope();
+        function--;
+        state = enclosing;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        Map<Token, Type> before = new HashMap<>(state);
+        stmt.thenBranch.accept(this);
+        Map<Token, Type> afterThen = state;
+        state = before;
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+        state = join(afterThen, state);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            infer(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Type type = stmt.initializer == null ? Type.NIL : infer(stmt.initializer);
+        declare(stmt.name, type);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        // 循环开始处的状态 = 进入循环时的状态 和 每次循环结束时的状态 合并 迭代到不再变化
+        // 每个变量最多从具体类型变成未知一次 所以一定会停下来
+        Map<Token, Type> head = new HashMap<>(state);
+        for (;;) {
+            dry++;
+            infer(stmt.condition);
+            stmt.body.accept(this);
+            dry--;
+            Map<Token, Type> merged = join(head, state);
+            if (merged.equals(head)) {
+                break;
+            }
+            head = merged;
+            state = new HashMap<>(head);
+        }
+        // 用不动点的状态再走一遍 这一遍才写结果
+        state = new HashMap<>(head);
+        infer(stmt.condition);
+        stmt.body.accept(this);
+        // 循环结束时条件刚好不成立
+        state = new HashMap<>(head);
+        dry++;
+        infer(stmt.condition);
+        dry--;
+        return null;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        Type type = infer(expr.value);
+        Token slot = lookup(expr.name.lexeme);
+        if (slot == null) {
+            assignedGlobals.add(expr.name.lexeme);
+            return type;
+        }
+        reassigned.add(slot);
+        if (levels.get(slot) < function) {
+            unstable.add(slot);
+        } else if (!unstable.contains(slot)) {
+            state.put(slot, type);
+        }
+        return type;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = infer(expr.left);
+        Type right = infer(expr.right);
+        boolean numeric = left.is(Kind.NUMBER) && right.is(Kind.NUMBER);
+        switch (expr.operator.type) {
+            case PLUS: {
+                boolean strings = left.is(Kind.STRING) && right.is(Kind.STRING);
+                if (dry == 0) {
+                    expr.numeric = numeric;
+                    expr.strings = strings;
+                    if (!addable(left) || !addable(right)
+                            || (left.known() && right.known() && !numeric && !strings)) {
+                        Jlox.warning(expr.operator, "Operands must be two numbers or two strings.");
+                    }
+                }
+                // 不出错的话 结果和已知的那一边类型相同
+                if (left.is(Kind.NUMBER) || right.is(Kind.NUMBER)) {
+                    return Type.NUMBER;
+                }
+                if (left.is(Kind.STRING) || right.is(Kind.STRING)) {
+                    return Type.STRING;
+                }
+                return Type.UNKNOWN;
+            }
+            case MINUS:
+            case STAR:
+            case SLASH:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL: {
+                if (dry == 0) {
+                    expr.numeric = numeric;
+                    if (notNumber(left) || notNumber(right)) {
+                        Jlox.warning(expr.operator, "Operands must be numbers.");
+                    }
+                }
+                boolean comparison = expr.operator.type != TokenType.MINUS
+                    && expr.operator.type != TokenType.STAR && expr.operator.type != TokenType.SLASH;
+                return comparison ? Type.BOOLEAN : Type.NUMBER;
+            }
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                return Type.BOOLEAN;
+        }
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        Type callee = infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        if (dry == 0 && callee.known() && !callee.is(Kind.CALLABLE) && !callee.is(Kind.CLASS)
+                && !callee.is(Kind.INSTANCE)) {
+            Jlox.warning(expr.paren, "Can only call functions and classes.");
+        }
+        if (callee.is(Kind.CLASS)) {
+            return Type.instanceOf(callee.className);
+        }
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        Type object = infer(expr.object);
+        if (dry == 0 && (object.is(Kind.NUMBER) || object.is(Kind.STRING) || object.is(Kind.BOOLEAN)
+                || object.is(Kind.NIL))) {
+            Jlox.warning(expr.name, "Only instance have properties.");
+        }
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        infer(expr.object);
+        return infer(expr.value);
+    }
+
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        return Type.CALLABLE;
+    }
+
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        // 可能是子类的实例 不记录具体的类
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) {
+            return Type.NUMBER;
+        }
+        if (expr.value instanceof String) {
+            return Type.STRING;
+        }
+        if (expr.value instanceof Boolean) {
+            return Type.BOOLEAN;
+        }
+        return expr.value == null ? Type.NIL : Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        // and or 返回其中一边的值 右边不一定执行
+        Type left = infer(expr.left);
+        Map<Token, Type> afterLeft = new HashMap<>(state);
+        Type right = infer(expr.right);
+        state = join(afterLeft, state);
+        return left.join(right);
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        Type right = infer(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            return Type.BOOLEAN;
+        }
+        if (dry == 0) {
+            expr.numeric = right.is(Kind.NUMBER);
+            if (notNumber(right)) {
+                Jlox.warning(expr.operator, "Operand must be a number.");
+            }
+        }
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        Token slot = lookup(expr.name.lexeme);
+        if (slot == null) {
+            Type type = globals.get(expr.name.lexeme);
+            return type == null ? Type.UNKNOWN : type;
+        }
+        if (unstable.contains(slot)) {
+            return Type.UNKNOWN;
+        }
+        if (levels.get(slot) < function) {
+            // 外层函数的变量 只有声明后再没被赋值过时 类型才一直成立
+            return reassigned.contains(slot) ? Type.UNKNOWN : declared.get(slot);
+        }
+        Type type = state.get(slot);
+        return type == null ? Type.UNKNOWN : type;
+    }
+
+    @Override
+    public Type visitIndexExpr(Expr.Index expr) {
+        infer(expr.object);
+        infer(expr.index);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitIndexSetExpr(Expr.IndexSet expr) {
+        infer(expr.object);
+        infer(expr.index);
+        return infer(expr.value);
+    }
+
+    @Override
+    public Type visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            infer(element);
+        }
+        return Type.UNKNOWN;
+    }
+
+    private void declare(Token name, Type type) {
+        if (scopes.isEmpty()) {
+            // 顶层的 class fun 只在第一遍里记下来 第二遍开始前去掉被赋值过的
+            if (!collecting) {
+                return;
+            }
+            if (type.is(Kind.CLASS) || type.is(Kind.CALLABLE)) {
+                if (globals.containsKey(name.lexeme)) {
+                    // 同名声明了多次 不确定是哪一个
+                    assignedGlobals.add(name.lexeme);
+                }
+                globals.put(name.lexeme, type);
+            } else {
+                assignedGlobals.add(name.lexeme);
+            }
+            return;
+        }
+        scopes.get(scopes.size() - 1).put(name.lexeme, name);
+        levels.put(name, function);
+        declared.put(name, type);
+        state.put(name, type);
+    }
+
+    private Token lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Token slot = scopes.get(i).get(name);
+            if (slot != null) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        for (Token slot : scopes.remove(scopes.size() - 1).values()) {
+            state.remove(slot);
+        }
+    }
+
+    private static Map<Token, Type> join(Map<Token, Type> left, Map<Token, Type> right) {
+        // 只在一边出现的变量 是在分支内部声明的 出了分支就看不到了
+        Map<Token, Type> joined = new HashMap<>();
+        for (Map.Entry<Token, Type> entry : left.entrySet()) {
+            Type other = right.get(entry.getKey());
+            if (other != null) {
+                joined.put(entry.getKey(), entry.getValue().join(other));
+            }
+        }
+        return joined;
+    }
+
+    private static boolean notNumber(Type type) {
+        return type.known() && !type.is(Kind.NUMBER);
+    }
+
+    private static boolean addable(Type type) {
+        return !type.known() || type.is(Kind.NUMBER) || type.is(Kind.STRING);
+    }
+}
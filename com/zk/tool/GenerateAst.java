@@ -13,29 +13,32 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Binary   : Expr left, Token operator, Expr right",
+            "Binary   : Expr left, Token operator, Expr right | boolean numeric = false, boolean strings = false",
             "Call     : Expr callee, Token paren, List<Expr> arguments",
             "Get      : Expr object, Token name",
             "Set      : Expr object, Token name, Expr value",
-            "Super    : Token keyword, Token method",
-            "This     : Token keyword",
+            "Super    : Token keyword, Token method | int depth = -1",
+            "This     : Token keyword | int depth = -1",
             "Grouping : Expr expression",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
-            "Unary    : Token operator, Expr right",
-            "Variable : Token name",
-            "Assign   : Token name, Expr value"
+            "Unary    : Token operator, Expr right | boolean numeric = false",
+            "Variable : Token name | int depth = -1",
+            "Assign   : Token name, Expr value | int depth = -1",
+            "Index    : Expr object, Token bracket, Expr index",
+            "IndexSet : Expr object, Token bracket, Expr index, Expr value",
+            "ListLiteral : Token bracket, List<Expr> elements"
           ));
         defineAst(outputDir, "Stmt", Arrays.asList(
             "Block      : List<Stmt> statements",
             "Class      : Token name, Expr.Variable superClass, List<Stmt.Function> methods",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Function   : Token name, List<Token> params, List<Stmt> body | boolean memoize = false, transient FrameMachine.Code code = null",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print      : Expr expression",
             "Return     : Token keyword, Expr value",
             "Var        : Token name, Expr initializer",
-            "While      : Expr condition, Stmt body"
+            "While      : Token keyword, Expr condition, Stmt body"
         ));
       }
 
@@ -45,9 +48,11 @@ public class GenerateAst {
 
         writer.println("package com.zk.jlox;");
         writer.println();
+        writer.println("import java.io.Serializable;");
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        // Serializable so that functions and classes can be written into heap snapshots together with their AST.
+        writer.println("abstract class " + baseName + " implements Serializable {");
 
         defineVisitor(writer, baseName, types);
 
@@ -55,7 +60,13 @@ public class GenerateAst {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim(); 
-            defineType(writer, baseName, className, fields);
+            // Fields after '|' are filled in by later passes (e.g. Resolver), not by the parser.
+            String annotations = null;
+            if (fields.contains("|")) {
+                annotations = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, annotations);
         }
 
         // The base accept() method.
@@ -78,7 +89,7 @@ public class GenerateAst {
         writer.println("  }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String annotationList) {
         writer.println("  static class " + className + " extends " + baseName + " {");
 
         // Constructor.
@@ -105,6 +116,11 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println("    final " + field + ";");
         }
+        if (annotationList != null) {
+            for (String annotation : annotationList.split(", ")) {
+                writer.println("    " + annotation + ";");
+            }
+        }
         writer.println("  }");
     }
 }